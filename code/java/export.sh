@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+shift 3
+
+# Example: JAVA_OPTS="-Dexport.dir=/tmp/export -Dexport.gzip=true" source ./export.sh flightDB 5432 user Flight Reservation "SELECT fid, COUNT(*) FROM Reservation GROUP BY fid"
+java $JAVA_OPTS -cp lib/*:bin/ TableExporter $DBNAME $PORT $USER "$@"
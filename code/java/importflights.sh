@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+FILE=$4
+
+# Example: source ./importflights.sh flightDB 5432 user timetable.csv
+java $JAVA_OPTS -cp lib/*:bin/ FlightImporter $DBNAME $PORT $USER $FILE
@@ -0,0 +1,7 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: JAVA_OPTS="-Dloadsim.threads=200 -Dloadsim.connections=20 -Dloadsim.seconds=60" source ./loadsim.sh flightDB 5432 user
+java $JAVA_OPTS -cp lib/*:bin/ LoadSimulator $DBNAME $PORT $USER
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: JAVA_OPTS="-Dreconcile.dryRun=true" source ./reconcile.sh flightDB 5432 user
+# Background: JAVA_OPTS="-Dreconcile.intervalS=600 -Dreconcile.pauseMs=500" ./reconcile.sh flightDB 5432 user > reconcile.log &
+java $JAVA_OPTS -cp lib/*:bin/ NumSoldReconciler $DBNAME $PORT $USER $4 $5
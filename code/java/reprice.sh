@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: JAVA_OPTS="-Dfare.dryRun=true" source ./reprice.sh flightDB 5432 user
+# Curves: JAVA_OPTS="-Dfare.loadCurve=0:0.8,0.5:1,1:2 -Dfare.daysCurve=0:1.4,14:1.1,90:0.9 -Dfare.roundTo=5" ./reprice.sh flightDB 5432 user
+java $JAVA_OPTS -cp lib/*:bin/ FareEngine $DBNAME $PORT $USER
@@ -2,6 +2,13 @@
 DBNAME=$1
 PORT=$2
 USER=$3
+REPLICA_DBNAME=$4
+REPLICA_PORT=$5
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER
+# Reports on a replica: source ./run.sh flightDB 5432 user flightDB_replica 5433
+# Routing options: JAVA_OPTS="-Ddbproject.replicaPool=2 -Ddbproject.maxReplicaLagMs=1000 -Ddbproject.stickyMs=5000"
+# Boards reload after: JAVA_OPTS="-Ddbproject.boardMaxAgeMs=60000"
+# Journal: JAVA_OPTS="-Ddbproject.journal=/tmp/$USER/bookings.journal -Ddbproject.journalCommitMs=2"
+# Replay: java -cp lib/*:bin/ BookingJournal summary|apply <journal> [<dbname> <port> <user>]
+java $JAVA_OPTS -cp lib/*:bin/ DBproject $DBNAME $PORT $USER $REPLICA_DBNAME $REPLICA_PORT
@@ -0,0 +1,7 @@
+#! /bin/bash
+USER=$1
+shift
+
+# Every shard is given as <dbname>:<port>, in shard order; the order must match the one used by createShardedDB.sh.
+# Example: source ./sharded.sh $USER $USER"_shard0":$PGPORT $USER"_shard1":$PGPORT $USER"_shard2":$PGPORT $USER"_shard3":$PGPORT
+java $JAVA_OPTS -cp lib/*:bin/ ShardRouter $USER "$@"
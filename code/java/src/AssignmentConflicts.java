@@ -0,0 +1,283 @@
+/*
+ * Crew and aircraft conflicts
+ * ===========================
+ *
+ * Finds pilots and planes assigned to flights that overlap in time.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+
+/**
+ * This class joins FlightInfo with the Schedule times and keeps, for every
+ * pilot and every plane, its flights sorted by departure.  A flight occupies
+ * its resources from departure up to (not including) arrival, so a flight
+ * that arrives when it departs occupies nothing and conflicts with nothing.
+ *
+ * overlaps() sweeps the flights of every resource in departure order with a
+ * heap of the flights still in the air, so all k overlapping pairs are found
+ * in O(n log n + k).  Resources are swept in parallel.
+ *
+ * check() tests one proposed assignment in O(log n): with the departures
+ * sorted and a running maximum of the arrivals, the flights departing before
+ * the proposed arrival overlap it exactly when the latest of their arrivals
+ * is after the proposed departure.  add() puts a proposed assignment in,
+ * so the flights of one import are also checked against each other.
+ */
+
+public class AssignmentConflicts{
+	//flight id that Resource.check returns when nothing overlaps
+	static final int NONE = Integer.MIN_VALUE;
+
+	/**
+	 * The flights of one pilot or plane, sorted by departure.
+	 */
+	static class Resource{
+		final String kind;
+		final int id;
+		final int[] flights;
+		final long[] starts;
+		final long[] ends;
+		//latest arrival among flights 0..i, and the flight it belongs to
+		final long[] maxEnds;
+		final int[] maxFlights;
+
+		Resource(String kind, int id, int[] flights, long[] starts, long[] ends) {
+			this.kind = kind;
+			this.id = id;
+			this.flights = flights;
+			this.starts = starts;
+			this.ends = ends;
+			this.maxEnds = new long[flights.length];
+			this.maxFlights = new int[flights.length];
+			for (int i = 0; i < flights.length; ++i) {
+				// a flight that occupies nothing is never the latest arrival
+				long end = ends[i] > starts[i] ? ends[i] : Long.MIN_VALUE;
+				if (i == 0 || end > this.maxEnds[i - 1]) {
+					this.maxEnds[i] = end;
+					this.maxFlights[i] = flights[i];
+				}
+				else {
+					this.maxEnds[i] = this.maxEnds[i - 1];
+					this.maxFlights[i] = this.maxFlights[i - 1];
+				}
+			}
+		}
+
+		/**
+		 * Returns a flight overlapping [start, end), or NONE when there is none.
+		 */
+		int check(long start, long end) {
+			if (end <= start) return NONE;
+			// number of flights departing before the proposed arrival
+			int lo = 0, hi = this.starts.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.starts[mid] < end) lo = mid + 1;
+				else hi = mid;
+			}
+			if (lo > 0 && this.maxEnds[lo - 1] > start) return this.maxFlights[lo - 1];
+			return NONE;
+		}
+
+		/**
+		 * Returns this resource with one more flight, kept in departure order.
+		 */
+		Resource with(int flight, long start, long end) {
+			int pos = 0;
+			while (pos < this.starts.length && this.starts[pos] <= start) ++pos;
+			int m = this.flights.length + 1;
+			int[] f = new int[m];
+			long[] s = new long[m];
+			long[] e = new long[m];
+			System.arraycopy(this.flights, 0, f, 0, pos);
+			System.arraycopy(this.starts, 0, s, 0, pos);
+			System.arraycopy(this.ends, 0, e, 0, pos);
+			f[pos] = flight;
+			s[pos] = start;
+			e[pos] = end;
+			System.arraycopy(this.flights, pos, f, pos + 1, m - pos - 1);
+			System.arraycopy(this.starts, pos, s, pos + 1, m - pos - 1);
+			System.arraycopy(this.ends, pos, e, pos + 1, m - pos - 1);
+			return new Resource(this.kind, this.id, f, s, e);
+		}
+
+		List<Conflict> sweep() {
+			List<Conflict> conflicts = new ArrayList<Conflict>();
+			// flights still in the air, earliest arrival first
+			PriorityQueue<Integer> active = new PriorityQueue<Integer>((a, b) -> Long.compare(this.ends[a], this.ends[b]));
+			for (int i = 0; i < this.flights.length; ++i) {
+				// occupies nothing, like check() says for it
+				if (this.ends[i] <= this.starts[i]) continue;
+				while (!active.isEmpty() && this.ends[active.peek()] <= this.starts[i])
+					active.poll();
+				for (int j : active)
+					conflicts.add(new Conflict(this.kind, this.id, this.flights[j], this.flights[i],
+						this.starts[i], Math.min(this.ends[i], this.ends[j])));
+				active.add(i);
+			}
+			return conflicts;
+		}
+	}
+
+	/**
+	 * Two flights of the same pilot or plane that overlap from start to end.
+	 */
+	public static class Conflict{
+		public final String kind;
+		public final int resource;
+		public final int flight1;
+		public final int flight2;
+		public final long start;
+		public final long end;
+
+		Conflict(String kind, int resource, int flight1, int flight2, long start, long end) {
+			this.kind = kind;
+			this.resource = resource;
+			this.flight1 = flight1;
+			this.flight2 = flight2;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private final Map<Integer, Resource> _pilots;
+	private final Map<Integer, Resource> _planes;
+
+	private AssignmentConflicts(Map<Integer, Resource> pilots, Map<Integer, Resource> planes) {
+		this._pilots = pilots;
+		this._planes = planes;
+	}
+
+	/**
+	 * Loads the assignments of all scheduled flights from a read connection.
+	 *
+	 * @param esql connection to load from
+	 * @return the per pilot and per plane flights
+	 * @throws java.sql.SQLException when failed to read the assignments
+	 */
+	public static AssignmentConflicts load(DBproject esql) throws SQLException {
+		return load(esql, false);
+	}
+
+	/**
+	 * Loads the assignments of all scheduled flights.
+	 *
+	 * @param esql connection to load from
+	 * @param primary true to read from the primary, for checks before a write
+	 * @return the per pilot and per plane flights
+	 * @throws java.sql.SQLException when failed to read the assignments
+	 */
+	public static AssignmentConflicts load(DBproject esql, boolean primary) throws SQLException {
+		List<List<String>> rows = esql.executeQueryAndReturnResult("SELECT FI.flight_id, FI.pilot_id, FI.plane_id, CAST(EXTRACT(EPOCH FROM S.departure_time) AS BIGINT), CAST(EXTRACT(EPOCH FROM S.arrival_time) AS BIGINT) FROM FlightInfo FI, Schedule S WHERE S.flightNum = FI.flight_id", primary);
+		int n = rows.size();
+		int[] flights = new int[n];
+		int[] pilots = new int[n];
+		int[] planes = new int[n];
+		long[] starts = new long[n];
+		long[] ends = new long[n];
+		for (int i = 0; i < n; ++i) {
+			List<String> row = rows.get(i);
+			flights[i] = Integer.parseInt(row.get(0));
+			pilots[i] = Integer.parseInt(row.get(1));
+			planes[i] = Integer.parseInt(row.get(2));
+			starts[i] = Long.parseLong(row.get(3));
+			ends[i] = Long.parseLong(row.get(4));
+		}
+		return new AssignmentConflicts(group("pilot", pilots, flights, starts, ends), group("plane", planes, flights, starts, ends));
+	}
+
+	/**
+	 * Sorts the flights by resource and departure and cuts them into one
+	 * Resource per resource id.
+	 */
+	private static Map<Integer, Resource> group(String kind, int[] resources, int[] flights, long[] starts, long[] ends) {
+		Integer[] order = new Integer[flights.length];
+		for (int i = 0; i < order.length; ++i) order[i] = i;
+		Arrays.sort(order, (a, b) -> resources[a] != resources[b] ? Integer.compare(resources[a], resources[b]) : Long.compare(starts[a], starts[b]));
+
+		Map<Integer, Resource> grouped = new HashMap<Integer, Resource>();
+		for (int lo = 0, hi; lo < order.length; lo = hi) {
+			hi = lo;
+			while (hi < order.length && resources[order[hi]] == resources[order[lo]]) ++hi;
+			int m = hi - lo;
+			int[] f = new int[m];
+			long[] s = new long[m];
+			long[] e = new long[m];
+			for (int i = 0; i < m; ++i) {
+				f[i] = flights[order[lo + i]];
+				s[i] = starts[order[lo + i]];
+				e[i] = ends[order[lo + i]];
+			}
+			grouped.put(resources[order[lo]], new Resource(kind, resources[order[lo]], f, s, e));
+		}
+		return grouped;
+	}
+
+	/**
+	 * Finds every pair of overlapping flights of the same pilot or plane.
+	 *
+	 * @return the conflicts, pilots first, each in resource order
+	 */
+	public List<Conflict> overlaps() {
+		List<Resource> resources = new ArrayList<Resource>();
+		List<Integer> pilotIds = new ArrayList<Integer>(this._pilots.keySet());
+		List<Integer> planeIds = new ArrayList<Integer>(this._planes.keySet());
+		Collections.sort(pilotIds);
+		Collections.sort(planeIds);
+		for (int id : pilotIds) resources.add(this._pilots.get(id));
+		for (int id : planeIds) resources.add(this._planes.get(id));
+
+		return resources.parallelStream()
+			.flatMap(r -> r.sweep().stream())
+			.collect(Collectors.toList());
+	}
+
+	/**
+	 * Checks a proposed assignment of a pilot and a plane to a flight
+	 * departing at start and arriving at end (seconds, see DepartureBoard).
+	 *
+	 * @return a description of the first conflict, or null when there is none
+	 */
+	public String check(int pilotId, int planeId, long start, long end) {
+		Resource pilot = this._pilots.get(pilotId);
+		int flight = pilot == null ? NONE : pilot.check(start, end);
+		if (flight != NONE) return String.format("pilot %d already flies %s at that time", pilotId, describe(flight));
+
+		Resource plane = this._planes.get(planeId);
+		flight = plane == null ? NONE : plane.check(start, end);
+		if (flight != NONE) return String.format("plane %d is already used by %s at that time", planeId, describe(flight));
+		return null;
+	}
+
+	/**
+	 * Adds an assignment that is not in the database yet, so later checks
+	 * see it.  Such flights have no number; they are given as -line, the
+	 * line of the import file they come from.
+	 */
+	public void add(int flight, int pilotId, int planeId, long start, long end) {
+		this._pilots.put(pilotId, with(this._pilots.get(pilotId), "pilot", pilotId, flight, start, end));
+		this._planes.put(planeId, with(this._planes.get(planeId), "plane", planeId, flight, start, end));
+	}
+
+	private static Resource with(Resource r, String kind, int id, int flight, long start, long end) {
+		if (r == null) return new Resource(kind, id, new int[] {flight}, new long[] {start}, new long[] {end});
+		return r.with(flight, start, end);
+	}
+
+	private static String describe(int flight) {
+		return flight >= 0 ? "flight " + flight : "the flight on line " + (-flight) + " of this import";
+	}
+}
@@ -0,0 +1,429 @@
+/*
+ * Booking journal
+ * ===============
+ *
+ * Append-only binary log of bookings, cancellations and added entities.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+
+/**
+ * This class appends events to a journal file.  A record is
+ *
+ *   int length | int crc32 | byte type | long millis | short n | n x (short len | utf-8 bytes)
+ *
+ * where length and crc32 cover everything after the crc.  append() only
+ * copies the record into an in-memory batch; a flusher thread writes the
+ * batch with one FileChannel write and one force() every groupCommitMillis
+ * (group commit), so the booking path never waits for the disk.  Callers
+ * that need durability wait with awaitDurable() on the returned position.
+ * A groupCommitMillis of 0 writes every batch as soon as it has a record.
+ *
+ * When a write or force() fails, the file is truncated back to the end of
+ * the last forced record and the journal fails: waiting and later callers
+ * get the error instead of a position that never became durable.
+ *
+ * Replay reads the records back in order and stops at the first torn or
+ * corrupt record, which can only be the tail of a crashed write.
+ */
+
+public class BookingJournal{
+	public static final byte BOOK = 1;          // rnum, cid, fnum, status
+	public static final byte CANCEL = 2;        // rnum, fnum, status
+	public static final byte ADD_PLANE = 3;     // id, make, model, age, seats
+	public static final byte ADD_PILOT = 4;     // id, fullname, nationality
+	public static final byte ADD_FLIGHT = 5;    // fnum, cost, num_stops, departure, arrival, arrival_airport, departure_airport[, fiid, pilot_id, plane_id, schedule id]
+	public static final byte ADD_TECHNICIAN = 6;// id, full_name
+	static final String[] TYPE_NAMES = {"", "book", "cancel", "add plane", "add pilot", "add flight", "add technician"};
+
+	static final int HEADER = 4 + 4;
+	static final int BATCH_SIZE = 1 << 20;
+
+	private final FileChannel _channel;
+	private final long _groupCommitMillis;
+	private final Thread _flusher;
+
+	// guarded by this
+	private ByteBuffer _active = ByteBuffer.allocateDirect(BATCH_SIZE);
+	private ByteBuffer _spare = ByteBuffer.allocateDirect(BATCH_SIZE);
+	private long _appended;   // end position of the last appended record
+	private long _durable;    // end position of the last forced record
+	private boolean _closed = false;
+	private boolean _stopped = false;      // the flusher has exited
+	private IOException _failure = null;   // why the flusher stopped, null when closed normally
+
+	/**
+	 * Opens (or creates) a journal and starts its flusher.
+	 *
+	 * @param file the journal file, appended to if it exists
+	 * @param groupCommitMillis the longest an appended record waits for its fsync, 0 for no wait
+	 * @throws java.io.IOException when the file cannot be opened
+	 */
+	public BookingJournal(Path file, long groupCommitMillis) throws IOException {
+		if (groupCommitMillis < 0)
+			throw new IllegalArgumentException("Group commit interval must not be negative: " + groupCommitMillis);
+		this._channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		this._groupCommitMillis = groupCommitMillis;
+		this._appended = this._channel.size();
+		this._durable = this._appended;
+		this._flusher = new Thread(this::flushLoop, "journal-flusher");
+		this._flusher.setDaemon(true);
+		this._flusher.start();
+	}
+
+	/**
+	 * Encodes one record, without the length and crc header.
+	 */
+	static byte[] encode(byte type, long millis, Object... fields) {
+		byte[][] values = new byte[fields.length][];
+		int size = 1 + 8 + 2;
+		for (int i = 0; i < fields.length; ++i) {
+			values[i] = String.valueOf(fields[i]).getBytes(StandardCharsets.UTF_8);
+			size += 2 + values[i].length;
+		}
+		ByteBuffer body = ByteBuffer.allocate(size);
+		body.put(type).putLong(millis).putShort((short) fields.length);
+		for (byte[] value : values)
+			body.putShort((short) value.length).put(value);
+		return body.array();
+	}
+
+	/**
+	 * Appends an event.  Returns as soon as the record is in the batch.
+	 *
+	 * @param type one of the event types above
+	 * @param fields the values of the event, written as strings
+	 * @return the journal position after this record, for awaitDurable()
+	 * @throws java.io.IOException when the journal is closed or failed
+	 */
+	public long append(byte type, Object... fields) throws IOException {
+		byte[] body = encode(type, System.currentTimeMillis(), fields);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		if (HEADER + body.length > BATCH_SIZE)
+			throw new IOException("Journal record too large: " + body.length + " bytes");
+
+		synchronized (this) {
+			// a full batch waits for the flusher to take it
+			while (!this._closed && this._failure == null && this._active.remaining() < HEADER + body.length) {
+				notifyAll();
+				try {
+					wait();
+				}catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while appending to the journal");
+				}
+			}
+			if (this._failure != null) throw new IOException("Journal failed: " + this._failure.getMessage(), this._failure);
+			if (this._closed) throw new IOException("Journal is closed");
+			this._active.putInt(body.length).putInt((int) crc.getValue()).put(body);
+			this._appended += HEADER + body.length;
+			if (this._groupCommitMillis == 0) notifyAll();
+			return this._appended;
+		}
+	}
+
+	/**
+	 * Waits until the journal is forced to disk up to a position.
+	 *
+	 * @param position a position returned by append()
+	 * @throws java.io.IOException when the position can no longer become durable
+	 */
+	public synchronized void awaitDurable(long position) throws IOException, InterruptedException {
+		while (this._durable < position) {
+			if (this._failure != null) throw new IOException("Journal failed: " + this._failure.getMessage(), this._failure);
+			if (this._stopped) throw new IOException("Journal is closed");
+			wait();
+		}
+	}
+
+	private void flushLoop() {
+		try {
+			flushBatches();
+		}finally{
+			synchronized (this) {
+				this._stopped = true;
+				notifyAll();
+			}
+		}
+	}
+
+	private void flushBatches() {
+		while (true) {
+			ByteBuffer batch;
+			long end;
+			long start;
+			boolean closed;
+			synchronized (this) {
+				if (this._active.position() == 0 && !this._closed) {
+					try {
+						// 0 waits for the next append
+						wait(this._groupCommitMillis);
+					}catch (InterruptedException e) {
+						return;
+					}
+				}
+				// swaps the batches so appenders continue while this one is written
+				batch = this._active;
+				this._active = this._spare;
+				this._spare = batch;
+				end = this._appended;
+				start = end - batch.position();
+				closed = this._closed;
+				notifyAll();
+			}
+
+			if (batch.position() == 0) {
+				if (closed) return;
+				continue;
+			}
+			try {
+				batch.flip();
+				while (batch.hasRemaining())
+					this._channel.write(batch);
+				this._channel.force(false);
+			}catch (IOException e) {
+				System.err.println("Error - Unable to write the journal: " + e.getMessage());
+				fail(start, e);
+				return;
+			}
+			batch.clear();
+
+			synchronized (this) {
+				this._durable = end;
+				notifyAll();
+			}
+			if (closed) return;
+		}
+	}
+
+	/**
+	 * Cuts a partly written batch off the file, so replay does not stop in
+	 * front of records written later, and fails the journal.
+	 *
+	 * @param start the file position the failed batch was written at
+	 */
+	private void fail(long start, IOException e) {
+		try {
+			this._channel.truncate(start);
+			this._channel.force(false);
+		}catch (IOException t) {
+			System.err.println("Error - Unable to truncate the journal to " + start + ", the tail may be torn: " + t.getMessage());
+		}
+		synchronized (this) {
+			this._failure = e;
+			this._active.clear();
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Flushes the remaining records and closes the journal.
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			this._closed = true;
+			notifyAll();
+		}
+		try {
+			this._flusher.join();
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this._channel.close();
+	}
+
+	/**
+	 * One event read back from a journal.
+	 */
+	public static class Event{
+		public final byte type;
+		public final long millis;
+		public final String[] fields;
+
+		Event(byte type, long millis, String[] fields) {
+			this.type = type;
+			this.millis = millis;
+			this.fields = fields;
+		}
+
+		int i(int field) {
+			return Integer.parseInt(this.fields[field]);
+		}
+	}
+
+	/**
+	 * Reads a journal from the start and hands every intact record to the
+	 * consumer.  The file is streamed through a fixed size buffer.
+	 *
+	 * @return the number of events read
+	 */
+	public static long replay(Path file, Consumer<Event> consumer) throws IOException {
+		long events = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BATCH_SIZE);
+			CRC32 crc = new CRC32();
+			while (channel.read(buffer) > 0 || buffer.position() > 0) {
+				buffer.flip();
+				int start = buffer.position();
+				while (buffer.remaining() >= HEADER) {
+					buffer.mark();
+					int length = buffer.getInt();
+					int checksum = buffer.getInt();
+					if (length < 11 || length > BATCH_SIZE - HEADER) return events;
+					if (buffer.remaining() < length) {
+						buffer.reset();
+						break;
+					}
+
+					byte[] body = new byte[length];
+					buffer.get(body);
+					crc.reset();
+					crc.update(body);
+					if ((int) crc.getValue() != checksum) return events;
+
+					ByteBuffer b = ByteBuffer.wrap(body);
+					byte type = b.get();
+					long millis = b.getLong();
+					String[] fields = new String[b.getShort()];
+					for (int i = 0; i < fields.length; ++i) {
+						byte[] value = new byte[b.getShort()];
+						b.get(value);
+						fields[i] = new String(value, StandardCharsets.UTF_8);
+					}
+					consumer.accept(new Event(type, millis, fields));
+					++events;
+				}
+				// a torn record at the end of the file
+				if (buffer.position() == start && channel.position() == channel.size()) return events;
+				buffer.compact();
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * Builds the statements that re-apply an event to a database.
+	 */
+	static List<String> toSql(Event e) {
+		List<String> sql = new ArrayList<String>();
+		switch (e.type) {
+			case BOOK:
+				sql.add(String.format("INSERT INTO Reservation (rnum, cid, fid, status, departure_month) VALUES (%d, %d, %d, '%s', (SELECT %s FROM Flight F WHERE F.fnum = %d))", e.i(0), e.i(1), e.i(2), e.fields[3], DBproject.DEPARTURE_MONTH, e.i(2)));
+				if (DBproject.SOLD_STATUSES.contains("'" + e.fields[3] + "'"))
+					sql.add(String.format("UPDATE Flight SET num_sold = num_sold + 1 WHERE fnum = %d", e.i(2)));
+				break;
+			case CANCEL:
+				sql.add(String.format("DELETE FROM Reservation R USING Flight F WHERE F.fnum = %d AND R.fid = F.fnum AND R.departure_month = %s AND R.rnum = %d", e.i(1), DBproject.DEPARTURE_MONTH, e.i(0)));
+				if (DBproject.SOLD_STATUSES.contains("'" + e.fields[2] + "'"))
+					sql.add(String.format("UPDATE Flight SET num_sold = num_sold - 1 WHERE fnum = %d", e.i(1)));
+				break;
+			case ADD_PLANE:
+				sql.add(String.format("INSERT INTO Plane (id, make, model, age, seats) VALUES (%d, '%s', '%s', %d, %d)", e.i(0), e.fields[1], e.fields[2], e.i(3), e.i(4)));
+				break;
+			case ADD_PILOT:
+				sql.add(String.format("INSERT INTO Pilot (id, fullname, nationality) VALUES (%d, '%s', '%s')", e.i(0), e.fields[1], e.fields[2]));
+				break;
+			case ADD_FLIGHT:
+				// num_sold is rebuilt by the BOOK events that follow; a pre-sold count
+				// that older journals carry as a twelfth field is ignored
+				sql.add(String.format("INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES (%d, %d, 0, %d, '%s', '%s', '%s', '%s')", e.i(0), e.i(1), e.i(2), e.fields[3], e.fields[4], e.fields[5], e.fields[6]));
+				if (e.fields.length > 7) {
+					sql.add(String.format("INSERT INTO FlightInfo (fiid, flight_id, pilot_id, plane_id) VALUES (%d, %d, %d, %d)", e.i(7), e.i(0), e.i(8), e.i(9)));
+					sql.add(String.format("INSERT INTO Schedule (id, flightNum, departure_time, arrival_time) VALUES (%d, %d, '%s', '%s')", e.i(10), e.i(0), e.fields[3], e.fields[4]));
+				}
+				break;
+			case ADD_TECHNICIAN:
+				sql.add(String.format("INSERT INTO Technician (id, full_name) VALUES (%d, '%s')", e.i(0), e.fields[1]));
+				break;
+		}
+		return sql;
+	}
+
+	/**
+	 * The replay tool.
+	 *
+	 *   summary <journal>                             rebuilds the per flight booking state in memory
+	 *   apply <journal> <dbname> <port> <user>        re-applies every event to a database
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main (String[] args) {
+		if (args.length < 2 || !(args[0].equals("summary") && args.length == 2 || args[0].equals("apply") && args.length == 5)) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BookingJournal.class.getName () +
+		            " summary <journal> | apply <journal> <dbname> <port> <user>");
+			return;
+		}//end if
+
+		Path file = Paths.get(args[1]);
+		DBproject esql = null;
+		try{
+			if (args[0].equals("summary")) {
+				// per flight count of reservations by status, and events by type
+				Map<Integer, Map<String, Integer>> flights = new TreeMap<Integer, Map<String, Integer>>();
+				Map<Integer, String> statuses = new HashMap<Integer, String>();
+				long[] types = new long[TYPE_NAMES.length];
+				long events = replay(file, e -> {
+					++types[e.type];
+					if (e.type == BOOK) {
+						statuses.put(e.i(0), e.fields[3]);
+						flights.computeIfAbsent(e.i(2), k -> new TreeMap<String, Integer>()).merge(e.fields[3], 1, Integer::sum);
+					}
+					else if (e.type == CANCEL && statuses.remove(e.i(0)) != null) {
+						flights.get(e.i(1)).merge(e.fields[2], -1, Integer::sum);
+					}
+				});
+
+				System.out.println("fnum\treservations by status");
+				for (Map.Entry<Integer, Map<String, Integer>> f : flights.entrySet())
+					System.out.println(f.getKey() + "\t" + f.getValue());
+				for (int t = 1; t < TYPE_NAMES.length; ++t)
+					System.out.println(TYPE_NAMES[t] + ": " + types[t]);
+				System.out.println(events + " events");
+			}
+			else {
+				Class.forName("org.postgresql.Driver");
+				esql = new DBproject (args[2], args[3], args[4], "");
+				final DBproject target = esql;
+				long[] failed = {0};
+				long events = replay(file, e -> {
+					for (String sql : toSql(e)) {
+						try {
+							target.executeUpdate(sql);
+						}catch (Exception ex) {
+							++failed[0];
+							System.err.println(ex.getMessage());
+						}
+					}
+				});
+				// bookings and flights added after the replay must not reuse journaled ids
+				esql.executeQueryAndReturnResult("SELECT setval('reservation_rnum_seq', GREATEST((SELECT MAX(rnum) FROM Reservation), 1))", true);
+				esql.executeQueryAndReturnResult("SELECT setval('flight_fnum_seq', GREATEST((SELECT MAX(fnum) FROM Flight), 1)), setval('flightinfo_fiid_seq', GREATEST((SELECT MAX(fiid) FROM FlightInfo), 1)), setval('schedule_id_seq', GREATEST((SELECT MAX(id) FROM Schedule), 1))", true);
+				System.out.println(events + " events applied, " + failed[0] + " statements failed");
+			}
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}finally{
+			if (esql != null) esql.cleanup ();
+		}
+	}
+}
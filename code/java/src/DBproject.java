@@ -17,7 +17,10 @@ import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -27,6 +30,9 @@ import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
 //ch2
 import javax.swing.*;
 import java.awt.*;
@@ -41,8 +47,42 @@ import java.awt.Graphics;
  */
 
 public class DBproject{
-	//reference to physical database connection
+	//reference to physical database connection (primary, takes all writes)
 	private Connection _connection = null;
+	//read-only report connections, empty when no replica is configured
+	private Connection[] _replicas = new Connection[0];
+	private int _nextReplica = 0;
+
+	//replicas further behind than this are skipped (-Ddbproject.maxReplicaLagMs)
+	private long _maxReplicaLagMillis = Long.getLong("dbproject.maxReplicaLagMs", 1000);
+	//reads stay on the primary this long after a write (-Ddbproject.stickyMs)
+	private long _stickyMillis = Long.getLong("dbproject.stickyMs", 5000);
+	private long _lastWriteMillis = 0;
+	private long _replicaLagMillis = 0;
+	private long _lagCheckedMillis = 0;
+
+	//in-memory departure and arrival boards, built on first use
+	private DepartureBoard _board = null;
+	private long _boardLoadedMillis = 0;
+
+	//boards older than this are reloaded, so other sessions' flights show up (-Ddbproject.boardMaxAgeMs)
+	private long _boardMaxAgeMillis = Long.getLong("dbproject.boardMaxAgeMs", 60000);
+
+	//journal of bookings and added entities, null when not journaling (-Ddbproject.journal)
+	private BookingJournal _journal = null;
+
+	//reservation statuses that hold a seat and are counted in Flight.num_sold
+	public static final String SOLD_STATUSES = "('C', 'R')";
+
+	//Reservation partition key of the flight F, see create.sql
+	public static final String DEPARTURE_MONTH = "date_trunc('month', F.actual_departure_date)::date";
+
+	//the Reservation partition of the flight F, NULL once its month was detached (see reservationPartitions.sh)
+	public static final String RESERVATION_PARTITION = "to_regclass(to_char(F.actual_departure_date, '\"reservation_y\"YYYY\"m\"MM'))";
+
+	//rows per page of the customer lookups
+	static final int PAGE_SIZE = Integer.getInteger("dbproject.pageSize", 10);
+
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
@@ -58,7 +98,98 @@ public class DBproject{
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
 	        System.out.println("Make sure you started postgres on this machine");
-	        System.exit(-1);
+	        // callers report it and clean up, a pool of connections must not exit the JVM
+	        throw new SQLException("Unable to Connect to Database: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Connects to the primary like the four argument constructor and opens
+	 * a pool of connections to a read replica that serves the reports.
+	 *
+	 * @param replicaDbname database name of the replica
+	 * @param replicaPort port of the replica
+	 * @param poolSize number of replica connections to open
+	 */
+	public DBproject(String dbname, String dbport, String user, String passwd,
+			String replicaDbname, String replicaPort, int poolSize) throws SQLException {
+		this(dbname, dbport, user, passwd);
+		System.out.print("Connecting to replica...");
+		try{
+			String url = "jdbc:postgresql://localhost:" + replicaPort + "/" + replicaDbname;
+			System.out.println ("Connection URL: " + url + "\n");
+
+			this._replicas = new Connection[poolSize];
+			for (int i = 0; i < poolSize; ++i) {
+				this._replicas[i] = DriverManager.getConnection(url, user, passwd);
+				this._replicas[i].setReadOnly(true);
+			}
+			System.out.println("Done");
+		}catch(Exception e){
+			// reports fall back to the primary
+			System.err.println("Error - Unable to Connect to Replica: " + e.getMessage());
+			this._replicas = new Connection[0];
+		}
+	}
+
+	/**
+	 * Picks the connection for a read-only query.  Reads go to the replica
+	 * pool round robin, unless this session wrote within the sticky window
+	 * (read-your-writes) or the replica is behind by more than the staleness
+	 * bound, in which case they go to the primary.
+	 *
+	 * @return the connection to run the query on
+	 */
+	private Connection readConnection() {
+		if (this._replicas.length == 0) return this._connection;
+
+		long now = System.currentTimeMillis();
+		if (now - this._lastWriteMillis < this._stickyMillis) return this._connection;
+
+		Connection replica = this._replicas[this._nextReplica];
+		this._nextReplica = (this._nextReplica + 1) % this._replicas.length;
+
+		// the lag is sampled at most once a second
+		if (now - this._lagCheckedMillis > 1000) {
+			this._replicaLagMillis = replicaLag(replica);
+			this._lagCheckedMillis = now;
+		}
+		if (this._replicaLagMillis > this._maxReplicaLagMillis) return this._connection;
+		return replica;
+	}
+
+	/**
+	 * Returns how far the replica is behind the primary in milliseconds,
+	 * measured with the Heartbeat row.  Every sample compares the beat the
+	 * replica has applied with the last beat written on the primary, then
+	 * writes a new beat there.  When the replica has not applied the last
+	 * beat, it is behind by at least the age of that beat; otherwise it is
+	 * counted as caught up.  Works for logical and streaming replicas, and
+	 * the beat is not a write of this session, so reads do not stick to the
+	 * primary because of it.
+	 */
+	private long replicaLag(Connection replica) {
+		try{
+			Statement stmt = replica.createStatement ();
+			ResultSet rs = stmt.executeQuery ("SELECT beat FROM Heartbeat WHERE id = 0");
+			Timestamp applied = rs.next() ? rs.getTimestamp(1) : null;
+			stmt.close ();
+
+			stmt = this._connection.createStatement ();
+			rs = stmt.executeQuery ("SELECT beat, EXTRACT(EPOCH FROM clock_timestamp() - beat) * 1000 FROM Heartbeat WHERE id = 0");
+			long lag = Long.MAX_VALUE;
+			if (rs.next()) {
+				Timestamp written = rs.getTimestamp(1);
+				lag = (applied != null && !applied.before(written)) ? 0 : rs.getLong(2);
+			}//end if
+			// inside a transaction of the caller the beat waits for the next sample
+			if (this._connection.getAutoCommit()) {
+				stmt.executeUpdate ("UPDATE Heartbeat SET beat = clock_timestamp() WHERE id = 0");
+			}//end if
+			stmt.close ();
+			return lag;
+		}catch (SQLException e){
+			return Long.MAX_VALUE;
 		}
 	}
 
@@ -70,6 +201,9 @@ public class DBproject{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException {
+		// writes always go to the primary; following reads stick to it
+		this._lastWriteMillis = System.currentTimeMillis();
+
 		// creates a statement object
 		Statement stmt = this._connection.createStatement ();
 
@@ -90,8 +224,8 @@ public class DBproject{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		//creates a statement object on a read connection
+		Statement stmt = readConnection().createStatement ();
 
 		//issues the query instruction
 		ResultSet rs = stmt.executeQuery (query);
@@ -133,8 +267,22 @@ public class DBproject{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
+		return executeQueryAndReturnResult (query, false);
+	}
+
+	/**
+	 * Same as executeQueryAndReturnResult(String), but can force the query
+	 * onto the primary.  Reads that feed a following write (e.g. picking the
+	 * next id) must not see a stale replica.
+	 *
+	 * @param query the input query string
+	 * @param primary true to run the query on the primary connection
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult (String query, boolean primary) throws SQLException {
 		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		Statement stmt = (primary ? this._connection : readConnection()).createStatement ();
 
 		//issues the query instruction
 		ResultSet rs = stmt.executeQuery (query);
@@ -160,6 +308,46 @@ public class DBproject{
 		return result;
 	}//end executeQueryAndReturnResult
 
+	/**
+	 * Same as executeQueryAndReturnResult(String), but fetches the rows from
+	 * the server fetchSize at a time through a cursor instead of all at once.
+	 *
+	 * @param query the input query string
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult (String query, int fetchSize) throws SQLException {
+		Connection connection = readConnection();
+
+		// the driver only uses a cursor inside a transaction
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		Statement stmt = connection.createStatement ();
+		try{
+			stmt.setFetchSize(fetchSize);
+			ResultSet rs = stmt.executeQuery (query);
+			int numCol = rs.getMetaData ().getColumnCount ();
+
+			List<List<String>> result  = new ArrayList<List<String>>();
+			while (rs.next()){
+				List<String> record = new ArrayList<String>();
+				for (int i=1; i<=numCol; ++i)
+					record.add(rs.getString (i));
+				result.add(record);
+			}//end while
+			connection.commit();
+			return result;
+		}catch (SQLException e){
+			// leaves no aborted transaction behind for the next statement
+			connection.rollback();
+			throw e;
+		}finally{
+			stmt.close ();
+			connection.setAutoCommit(autoCommit);
+		}//end try
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
@@ -169,8 +357,8 @@ public class DBproject{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		//creates a statement object on a read connection
+		Statement stmt = readConnection().createStatement ();
 
 		//issues the query instruction
 		ResultSet rs = stmt.executeQuery (query);
@@ -185,6 +373,38 @@ public class DBproject{
 		return rowCount;
 	}
 
+	/**
+	 * Method to stream the result of a query to an output stream with
+	 * COPY ... TO STDOUT.  Rows are written as they arrive, so memory use
+	 * does not depend on the size of the result.  Runs on a read connection.
+	 *
+	 * @param copy the COPY ... TO STDOUT statement
+	 * @param out the stream the COPY data is written to
+	 * @return the number of rows copied
+	 * @throws java.sql.SQLException when failed to execute the COPY
+	 * @throws java.io.IOException when failed to write to the stream
+	 */
+	public long copyOut (String copy, OutputStream out) throws SQLException, IOException {
+		return copyOut(copy, out, false);
+	}
+
+	/**
+	 * Method to stream the result of a query to an output stream like
+	 * copyOut(copy, out), optionally from the primary.
+	 *
+	 * @param copy the COPY ... TO STDOUT statement
+	 * @param out the stream the COPY data is written to
+	 * @param primary true to read from the primary, for data about to be written back
+	 * @return the number of rows copied
+	 * @throws java.sql.SQLException when failed to execute the COPY
+	 * @throws java.io.IOException when failed to write to the stream
+	 */
+	public long copyOut (String copy, OutputStream out, boolean primary) throws SQLException, IOException {
+		Connection connection = primary ? this._connection : readConnection();
+		CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+		return copyManager.copyOut(copy, out);
+	}
+
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current
@@ -203,6 +423,222 @@ public class DBproject{
 		return -1;
 	}
 
+	/**
+	 * Method to book a seat on a flight.  The seat check, the reservation
+	 * insert and the num_sold update run in one transaction on the primary,
+	 * with the flight row locked, so concurrent bookings of the same flight
+	 * cannot oversell it.  Reservation numbers come from reservation_rnum_seq.
+	 * The reservation goes to the partition of the flight's departure month.
+	 * The fare is read with the lock held, so it is the fare of the booking
+	 * even when FareEngine reprices the flight at the same time.
+	 *
+	 * @param cid id of the customer
+	 * @param fnum number of the flight
+	 * @return the new reservation, confirmed (C) when a seat was left and waitlisted (W) otherwise
+	 * @throws java.sql.SQLException when the booking failed and was rolled back
+	 */
+	public Booking bookFlight (int cid, int fnum) throws SQLException {
+		this._lastWriteMillis = System.currentTimeMillis();
+
+		boolean autoCommit = this._connection.getAutoCommit();
+		this._connection.setAutoCommit(false);
+		Statement stmt = this._connection.createStatement ();
+		try{
+			// locks the flight so bookings of the same flight queue up here
+			ResultSet rs = stmt.executeQuery (String.format("SELECT cost, %s FROM Flight F WHERE fnum = %d FOR UPDATE", DEPARTURE_MONTH, fnum));
+			if (!rs.next()) {
+				throw new SQLException(String.format("Flight %d does not exist", fnum));
+			}//end if
+			int fare = rs.getInt(1);
+			String month = rs.getString(2);
+
+			rs = stmt.executeQuery (availableSeatsQuery(fnum));
+			String status = (rs.next() && rs.getInt(1) > 0) ? "C" : "W";
+
+			rs = stmt.executeQuery (String.format("INSERT INTO Reservation (rnum, cid, fid, status, departure_month) VALUES (nextval('reservation_rnum_seq'), %d, %d, '%s', '%s') RETURNING rnum", cid, fnum, status, month));
+			rs.next();
+			int rnum = rs.getInt(1);
+			if (status.equals("C")) {
+				stmt.executeUpdate (String.format("UPDATE Flight SET num_sold = num_sold + 1 WHERE fnum = %d", fnum));
+			}//end if
+
+			this._connection.commit();
+			journal(BookingJournal.BOOK, rnum, cid, fnum, status);
+			return new Booking(rnum, status, fare);
+		}catch (SQLException e){
+			this._connection.rollback();
+			throw e;
+		}finally{
+			stmt.close ();
+			this._connection.setAutoCommit(autoCommit);
+		}//end try
+	}//end bookFlight
+
+	/**
+	 * A reservation made by bookFlight.
+	 */
+	public static class Booking{
+		public final int rnum;
+		public final String status;
+		public final int fare;
+
+		Booking(int rnum, String status, int fare) {
+			this.rnum = rnum;
+			this.status = status;
+			this.fare = fare;
+		}
+	}
+
+	/**
+	 * Work that executeTransaction runs inside one transaction.
+	 */
+	public interface Transaction<T>{
+		T run (Statement stmt) throws SQLException;
+	}
+
+	/**
+	 * Method to run several statements as one transaction on the primary.
+	 * Commits when the work returns and rolls back when it throws.
+	 *
+	 * @param work the statements to run
+	 * @return what the work returned
+	 * @throws java.sql.SQLException when the work failed and was rolled back
+	 */
+	public <T> T executeTransaction (Transaction<T> work) throws SQLException {
+		this._lastWriteMillis = System.currentTimeMillis();
+
+		boolean autoCommit = this._connection.getAutoCommit();
+		this._connection.setAutoCommit(false);
+		Statement stmt = this._connection.createStatement ();
+		try{
+			T result = work.run(stmt);
+			this._connection.commit();
+			return result;
+		}catch (SQLException e){
+			this._connection.rollback();
+			throw e;
+		}finally{
+			stmt.close ();
+			this._connection.setAutoCommit(autoCommit);
+		}//end try
+	}//end executeTransaction
+
+	/**
+	 * Method to set Flight.num_sold of one flight to the number of seat
+	 * holding reservations.  Runs as a short transaction on the primary and
+	 * gives up at once when the flight row is locked (e.g. by a booking), so
+	 * it never makes a booking wait.  The repair does not make later reads
+	 * sticky to the primary: nothing reads it back, and the reconciler's
+	 * scans must stay on the replica.
+	 *
+	 * @param fnum number of the flight
+	 * @return the num_sold before the repair, or -1 when the flight was locked
+	 * @throws java.sql.SQLException when the repair failed and was rolled back
+	 */
+	public int reconcileNumSold (int fnum) throws SQLException {
+		boolean autoCommit = this._connection.getAutoCommit();
+		this._connection.setAutoCommit(false);
+		Statement stmt = this._connection.createStatement ();
+		try{
+			ResultSet rs = stmt.executeQuery (String.format("SELECT num_sold FROM Flight WHERE fnum = %d FOR UPDATE NOWAIT", fnum));
+			int old = rs.next() ? rs.getInt(1) : 0;
+
+			// bookings lock the flight row first, so this count is stable now
+			stmt.executeUpdate (String.format("UPDATE Flight F SET num_sold = (SELECT COUNT(*) FROM Reservation WHERE fid = %d AND departure_month = %s AND status IN %s) WHERE fnum = %d", fnum, DEPARTURE_MONTH, SOLD_STATUSES, fnum));
+			this._connection.commit();
+			return old;
+		}catch (SQLException e){
+			this._connection.rollback();
+			// 55P03 is lock_not_available
+			if ("55P03".equals(e.getSQLState())) return -1;
+			throw e;
+		}finally{
+			stmt.close ();
+			this._connection.setAutoCommit(autoCommit);
+		}//end try
+	}//end reconcileNumSold
+
+	/**
+	 * Builds the query for the number of seats left on a flight, i.e. the
+	 * plane capacity minus num_sold.
+	 *
+	 * @param fnum number of the flight
+	 * @return the query string, with one row and one column
+	 */
+	public static String availableSeatsQuery (int fnum) {
+		return String.format("SELECT P.seats - F.num_sold AS Available_seats FROM Plane P, Flight F, FlightInfo FL WHERE P.id = FL.plane_id AND FL.flight_id = F.fnum AND F.fnum = %d", fnum);
+	}
+
+	/**
+	 * Builds the query for the number of passengers with a status on a
+	 * flight.  The query carries the departure month so only one Reservation
+	 * partition is read.
+	 *
+	 * @param fnum number of the flight
+	 * @param status one of W, C or R
+	 * @return the query string, with one row and one column
+	 */
+	public static String passengerCountQuery (int fnum, String status) {
+		return String.format("SELECT COUNT(*) FROM Reservation R, Flight F WHERE F.fnum = %d AND R.fid = F.fnum AND R.departure_month = %s AND R.status = '%s'", fnum, DEPARTURE_MONTH, status);
+	}
+
+	/**
+	 * Method to get the departure and arrival boards.  They are loaded from
+	 * Schedule and Flight the first time and kept up to date with the flights
+	 * this session adds.  Flights added or changed by other sessions only show
+	 * up when the boards are reloaded, which happens once they are older than
+	 * the bound.
+	 *
+	 * @return the boards
+	 * @throws java.sql.SQLException when failed to load the boards
+	 */
+	public DepartureBoard departureBoard () throws SQLException {
+		long now = System.currentTimeMillis();
+		if (this._board == null || now - this._boardLoadedMillis > this._boardMaxAgeMillis) {
+			this._board = DepartureBoard.load(this);
+			this._boardLoadedMillis = now;
+		}//end if
+		return this._board;
+	}
+
+	/**
+	 * Method to add a newly scheduled flight to the departure and arrival
+	 * boards.  Does nothing when the boards are not loaded yet, since they
+	 * will read the flight from Schedule when they are.
+	 */
+	public void addToDepartureBoard (int fnum, String departureAirport, String arrivalAirport, long departure, long arrival) {
+		if (this._board != null) {
+			this._board.add(fnum, departureAirport, arrivalAirport, departure, arrival);
+		}//end if
+	}
+
+	/**
+	 * Method to set the journal that committed bookings and added entities
+	 * are appended to.
+	 *
+	 * @param journal the journal, or null to stop journaling
+	 */
+	public void setJournal (BookingJournal journal) {
+		this._journal = journal;
+	}
+
+	/**
+	 * Method to append an event to the journal, if there is one.  Only
+	 * copies the event into the current group commit batch.  A failed
+	 * journal write is reported but does not undo the committed change.
+	 *
+	 * @param type one of the BookingJournal event types
+	 * @param fields the values of the event
+	 */
+	public void journal (byte type, Object... fields) {
+		if (this._journal == null) return;
+		try{
+			this._journal.append(type, fields);
+		}catch (IOException e){
+			System.err.println("Error - Unable to journal: " + e.getMessage());
+		}//end try
+	}
+
 	/**
 	 * Method to close the physical connection if it is open.
 	 */
@@ -211,7 +647,13 @@ public class DBproject{
 			if (this._connection != null){
 				this._connection.close ();
 			}//end if
-		}catch (SQLException e){
+			for (Connection replica : this._replicas){
+				replica.close ();
+			}//end for
+			if (this._journal != null){
+				this._journal.close ();
+			}//end if
+		}catch (SQLException | IOException e){
 	         // ignored.
 		}//end try
 	}//end cleanup
@@ -234,10 +676,10 @@ public class DBproject{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length != 3 && args.length != 5) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [<replica dbname> <replica port>]");
 			return;
 		}//end if
 
@@ -260,7 +702,16 @@ public class DBproject{
 			String dbport = args[1];
 			String user = args[2];
 
-			esql = new DBproject (dbname, dbport, user, "");
+			if (args.length == 5) {
+				int poolSize = Integer.getInteger("dbproject.replicaPool", 2);
+				esql = new DBproject (dbname, dbport, user, "", args[3], args[4], poolSize);
+			}
+			else {
+				esql = new DBproject (dbname, dbport, user, "");
+			}
+			if (System.getProperty("dbproject.journal") != null) {
+				esql.setJournal(new BookingJournal(java.nio.file.Paths.get(System.getProperty("dbproject.journal")), Long.getLong("dbproject.journalCommitMs", 2)));
+			}
 
 			boolean keepon = true;
 
@@ -277,7 +728,13 @@ public class DBproject{
 				System.out.println("7. List total number of repairs per plane in descending order");
 				System.out.println("8. List total number of repairs per year in ascending order");
 				System.out.println("9. Find total number of passengers with a given status");
-				System.out.println("10. < EXIT\n");
+				System.out.println("10. List flights departing from an airport in a time window");
+				System.out.println("11. List flights arriving at an airport in a time window");
+				System.out.println("12. List pilots and planes assigned to overlapping flights");
+				System.out.println("13. Import flights from a file");
+				System.out.println("14. List the reservations of a customer");
+				System.out.println("15. Search customers by last name or phone number");
+				System.out.println("16. < EXIT\n");
 				System.out.println("\033[0m");
 
 				switch (readChoice()){
@@ -290,7 +747,13 @@ public class DBproject{
 					case 7: ListsTotalNumberOfRepairsPerPlane(esql); break;
 					case 8: ListTotalNumberOfRepairsPerYear(esql); break;
 					case 9: FindPassengersCountWithStatus(esql); break;
-					case 10: keepon = false; break;
+					case 10: ListDepartures(esql); break;
+					case 11: ListArrivals(esql); break;
+					case 12: ListAssignmentConflicts(esql); break;
+					case 13: ImportFlights(esql); break;
+					case 14: ListCustomerReservations(esql); break;
+					case 15: SearchCustomers(esql); break;
+					case 16: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
@@ -422,11 +885,12 @@ public class DBproject{
 		try {
 			//Inserting plane into database
 			String query = String.format("SELECT id FROM Plane");
-			List<List<String>> data_id = esql.executeQueryAndReturnResult(query);
+			List<List<String>> data_id = esql.executeQueryAndReturnResult(query, true);
 			id = data_id.size();
 
 			query = String.format("INSERT INTO Plane (id, make, model, age, seats) VALUES (%d, '%s', '%s', %d, %d)", id, make, model, age, seats);
 			esql.executeUpdate(query);
+			esql.journal(BookingJournal.ADD_PLANE, id, make, model, age, seats);
 			System.out.println("\033[1;31m");
 			System.out.print("You have successfully added a plane to the database.\n\n");
 			System.out.println("\033[0m");
@@ -504,11 +968,12 @@ public class DBproject{
 		try {
 			//Inserting pilot into database
 			String query = String.format("SELECT id FROM Pilot");
-			List<List<String>> data_id = esql.executeQueryAndReturnResult(query);
+			List<List<String>> data_id = esql.executeQueryAndReturnResult(query, true);
 			int id = data_id.size();
 
 			query = String.format("INSERT INTO Pilot (id, fullname, nationality) VALUES (%d, '%s', '%s')", id, fullname, nationality);
 			esql.executeUpdate(query);
+			esql.journal(BookingJournal.ADD_PILOT, id, fullname, nationality);
 			System.out.println("\033[1;31m");
 			System.out.print("You have successfully added a pilot to the database.\n\n");
 			System.out.println("\033[0m");
@@ -521,6 +986,8 @@ public class DBproject{
 	public static void AddFlight(DBproject esql) {//3
 		int cost;
 		int stops;
+		int plane_id;
+		int pilot_id;
 		String depart_date;
 		String arrival_date;
 		String source;
@@ -550,7 +1017,7 @@ public class DBproject{
 		do {
 			// Asking for the departure date
 			System.out.println("\033[32m");
-			System.out.print("What is the departure date for this flight?(i.e. YYYY-MM-DD)\n");
+			System.out.print("What is the departure time for this flight?(i.e. YYYY-MM-DD HH:MM)\n");
 			System.out.println("\033[0m");
 
 			try {
@@ -577,7 +1044,7 @@ public class DBproject{
 		do {
 			// Asking for the arrival date
 			System.out.println("\033[32m");
-			System.out.print("What is the arrival date for this flight?(i.e. YYYY-MM-DD)\n");
+			System.out.print("What is the arrival time for this flight?(i.e. YYYY-MM-DD HH:MM)\n");
 			System.out.println("\033[0m");
 
 			try {
@@ -667,15 +1134,63 @@ public class DBproject{
 			}
 		}while (true);
 
+		do {
+			// Asking for the plane of this flight
+			System.out.println("\033[32m");
+			System.out.print("What is the id of the plane for this flight?\n");
+			System.out.println("\033[0m");
+
+			try {
+				plane_id = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("\033[1;31m");
+				System.out.println("Your input for the plane id is invalid! Please try again.");
+				System.out.println("\033[0m");
+				continue;
+			}
+		}while (true);
+
+		do {
+			// Asking for the pilot of this flight
+			System.out.println("\033[32m");
+			System.out.print("What is the id of the pilot for this flight?\n");
+			System.out.println("\033[0m");
+
+			try {
+				pilot_id = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("\033[1;31m");
+				System.out.println("Your input for the pilot id is invalid! Please try again.");
+				System.out.println("\033[0m");
+				continue;
+			}
+		}while (true);
+
 		try {
-			String query = String.format("SELECT fnum FROM Flight");
-			List<List<String>> data_id = esql.executeQueryAndReturnResult(query);
-			int fnum = data_id.size();
+			// the flight is added with its FlightInfo and Schedule rows
+			FlightImporter.FlightRow row = new FlightImporter.FlightRow();
+			row.cost = cost;
+			row.stops = stops;
+			row.departure = depart_date;
+			row.arrival = arrival_date;
+			row.arrivalAirport = source.toUpperCase();
+			row.departureAirport = destination.toUpperCase();
+			row.planeId = plane_id;
+			row.pilotId = pilot_id;
+
+			String error = FlightImporter.validateOne(esql, row);
+			if (error != null) {
+				System.out.println("\033[1;31m");
+				System.out.println("ERROR: The flight was not added, " + error + ".");
+				System.out.println("\033[0m");
+				return;
+			}
 
-			query = String.format("INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES (%d, %d, 0, %d, '%s', '%s', '%s', '%s')", fnum, cost, stops, depart_date, arrival_date, source, destination);
-			esql.executeUpdate(query);
+			int fnum = FlightImporter.write(esql, java.util.Collections.singletonList(row))[0];
 			System.out.println("\033[1;31m");
-			System.out.print("You have successfully added a flight to the database.\n\n");
+			System.out.print("You have successfully added flight " + fnum + " to the database.\n\n");
 			System.out.println("\033[0m");
 		}catch (Exception e) {
 			System.err.println(e.getMessage());
@@ -717,11 +1232,12 @@ public class DBproject{
 
 		try {
 			String query = String.format("SELECT id FROM Technician");
-			List<List<String>> data_id = esql.executeQueryAndReturnResult(query);
+			List<List<String>> data_id = esql.executeQueryAndReturnResult(query, true);
 			id = data_id.size();
 
 			query = String.format("INSERT INTO Technician (id, full_name) VALUES (%d, '%s')", id, full_name);
 			esql.executeUpdate(query);
+			esql.journal(BookingJournal.ADD_TECHNICIAN, id, full_name);
 			System.out.println("\033[1;31m");
 			System.out.print("You have successfully added a technician to the database\n\n");
 			System.out.println("\033[0m");
@@ -771,26 +1287,18 @@ public class DBproject{
 		}while(true);
 
 		try {
-			String temp = String.format("SELECT * FROM Reservation");
-			List<List<String>> rnum_data = esql.executeQueryAndReturnResult(temp);
-			int rnum = rnum_data.size();
-
-			String query = String.format("INSERT INTO Reservation(rnum, cid, fid, status) VALUES (%d, %d, %d, CASE WHEN (SELECT P.seats - F.num_sold FROM Plane P, Flight F, FlightInfo FL WHERE P.id = FL.plane_id AND F.fnum = FL.flight_id AND F.fnum = %d) > 0 THEN 'C' ELSE 'W' END)", rnum, id, fnum, fnum);
-			esql.executeUpdate(query);
-			query = String.format("UPDATE Flight SET num_sold = num_sold + 1 WHERE fnum = %d", fnum);
-			esql.executeUpdate(query);
-
-			rnum_data = esql.executeQueryAndReturnResult(temp);
-			String new_status = rnum_data.get(rnum).get(3);
+			Booking booking = esql.bookFlight(id, fnum);
 
-			if (new_status.equals("C")) {
+			if (booking.status.equals("C")) {
 				System.out.println("\033[1;31m");
 				System.out.println("The flight that you wish to book still has seats available. Your reservation is now confirmed.");
+				System.out.println(String.format("Reservation %d, fare: $%d", booking.rnum, booking.fare));
 				System.out.println("\033[0m");
 			}
 			else {
 				System.out.println("\033[1;31m");
 				System.out.println("The flight that you wish to book is sold out. You have now been waitlisted.");
+				System.out.println(String.format("Reservation %d, current fare: $%d", booking.rnum, booking.fare));
 				System.out.println("\033[0m");
 			}
 			System.out.print("\n");
@@ -828,10 +1336,7 @@ public class DBproject{
 		}while (true);
 
 		try {
-			String query1 = String.format("SELECT P.seats - (SELECT F.num_sold FROM Plane P, Flight F, FlightInfo FL WHERE P.id = FL.plane_id AND FL.flight_id = F.fnum and F.fnum = %d)", flight_num);
-			String query2 = String.format(" as Available_seats FROM Plane P, Flight F, FlightInfo FL WHERE P.id = FL.plane_id AND FL.flight_id = F.fnum AND F.fnum = %d", flight_num);
-
-			query1 = query1 + query2;
+			String query1 = availableSeatsQuery(flight_num);
 			System.out.print("\n");
 			System.out.println("\033[1;31m");
 			esql.executeQueryAndPrintResult(query1);
@@ -925,27 +1430,27 @@ public class DBproject{
 			int num_pass = 0;
 			String end_message;
 			if (status.equals("W")) {
-				query = String.format("SELECT * FROM Reservation WHERE fid = %d AND status = 'W'", fnum);
+				query = passengerCountQuery(fnum, "W");
 				list_passengers = esql.executeQueryAndReturnResult(query);
-				num_pass = list_passengers.size();
+				num_pass = Integer.parseInt(list_passengers.get(0).get(0));
 				System.out.println("\033[1;31m");
 				end_message = String.format("The number of passengers that are waitlisted for flight %d is %d.", fnum, num_pass);
 				System.out.print(end_message + "\n\n");
 				System.out.println("\033[0m");
 			}
 			else if (status.equals("R")) {
-				query = String.format("SELECT * FROM Reservation WHERE fid = %d AND status = 'R'", fnum);
+				query = passengerCountQuery(fnum, "R");
 				list_passengers = esql.executeQueryAndReturnResult(query);
-				num_pass = list_passengers.size();
+				num_pass = Integer.parseInt(list_passengers.get(0).get(0));
 				System.out.println("\033[1;31m");
 				end_message = String.format("The number of passengers that are reserved for flight %d is %d.", fnum, num_pass);
 				System.out.print(end_message + "\n\n");
 				System.out.println("\033[0m");
 			}
 			else {
-				query = String.format("SELECT * FROM Reservation WHERE fid = %d AND status = 'C'", fnum);
+				query = passengerCountQuery(fnum, "C");
 				list_passengers = esql.executeQueryAndReturnResult(query);
-				num_pass = list_passengers.size();
+				num_pass = Integer.parseInt(list_passengers.get(0).get(0));
 				System.out.println("\033[1;31m");
 				end_message = String.format("The number of passengers that are confirmed for flight %d is %d.", fnum, num_pass);
 				System.out.print(end_message + "\n\n");
@@ -955,4 +1460,306 @@ public class DBproject{
 			System.err.println(e.getMessage());
 		}
 	}
+
+	public static void ListDepartures(DBproject esql) {//10
+		System.out.println("\033[36m");
+		System.out.print("You have selected to list the flights departing from an airport in a time window. Please enter the following information.\n");
+		System.out.println("\033[0m");
+		ListBoard(esql, true);
+	}
+
+	public static void ListArrivals(DBproject esql) {//11
+		System.out.println("\033[36m");
+		System.out.print("You have selected to list the flights arriving at an airport in a time window. Please enter the following information.\n");
+		System.out.println("\033[0m");
+		ListBoard(esql, false);
+	}
+
+	public static void ListBoard(DBproject esql, boolean departures) {
+		String airport;
+		long from;
+		long to;
+
+		do {
+			System.out.println("\033[32m");
+			System.out.print("What is the 5 character code for the airport?\n");
+			System.out.println("\033[0m");
+
+			try {
+				airport = in.readLine().trim();
+
+				if (airport.length() != 5) {
+					System.out.println("\033[1;31m");
+					System.out.println("Error: Airport code must be 5 characters.");
+					System.out.println("\033[0m");
+				}
+				else {
+					break;
+				}
+			}catch (Exception e) {
+				System.out.println("\033[1;31m");
+				System.out.println("Your input for the airport code is invalid!");
+				System.out.println("\033[0m");
+				continue;
+			}
+		}while (true);
+
+		do {
+			System.out.println("\033[32m");
+			System.out.print("What is the start of the time window?(i.e. YYYY-MM-DD HH:MM)\n");
+			System.out.println("\033[0m");
+
+			try {
+				from = DepartureBoard.toSeconds(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("\033[1;31m");
+				System.out.println("Your input for the start of the time window is invalid! Please try again.");
+				System.out.println("\033[0m");
+				continue;
+			}
+		}while (true);
+
+		do {
+			System.out.println("\033[32m");
+			System.out.print("What is the end of the time window?(i.e. YYYY-MM-DD HH:MM)\n");
+			System.out.println("\033[0m");
+
+			try {
+				to = DepartureBoard.toSeconds(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("\033[1;31m");
+				System.out.println("Your input for the end of the time window is invalid! Please try again.");
+				System.out.println("\033[0m");
+				continue;
+			}
+		}while (true);
+
+		try {
+			DepartureBoard board = esql.departureBoard();
+			long start = System.nanoTime();
+			DepartureBoard.Window window = departures ? board.departures(airport, from, to) : board.arrivals(airport, from, to);
+			long nanos = System.nanoTime() - start;
+
+			System.out.println("\033[1;31m");
+			System.out.println(departures ? "fnum\tdeparture\t\tarrival" : "fnum\tarrival\t\t\tdeparture");
+			for (int i = 0; i < window.flights.length; ++i) {
+				System.out.println(window.flights[i] + "\t" + DepartureBoard.toTime(window.times[i]) + "\t" + DepartureBoard.toTime(window.otherTimes[i]));
+			}
+			System.out.println(String.format("%d flights found in %.1f microseconds.", window.flights.length, nanos / 1e3));
+			System.out.println("\033[0m");
+		}catch (Exception e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	public static void ListAssignmentConflicts(DBproject esql) {//12
+		System.out.println("\033[36m");
+		System.out.print("You have selected to list the pilots and planes that are assigned to overlapping flights.\n");
+		System.out.println("\033[0m");
+
+		try {
+			long start = System.nanoTime();
+			AssignmentConflicts conflicts = AssignmentConflicts.load(esql);
+			List<AssignmentConflicts.Conflict> overlaps = conflicts.overlaps();
+			long nanos = System.nanoTime() - start;
+
+			System.out.println("\033[1;31m");
+			System.out.println("resource\tid\tflight\tflight\toverlap");
+			for (AssignmentConflicts.Conflict c : overlaps) {
+				System.out.println(c.kind + "\t\t" + c.resource + "\t" + c.flight1 + "\t" + c.flight2 + "\t" + DepartureBoard.toTime(c.start) + " - " + DepartureBoard.toTime(c.end));
+			}
+			System.out.println(String.format("%d overlaps found in %.1f ms.", overlaps.size(), nanos / 1e6));
+			System.out.println("\033[0m");
+		}catch (Exception e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	public static void ImportFlights(DBproject esql) {//13
+		String file;
+
+		System.out.println("\033[36m");
+		System.out.print("You have selected to import flights from a file. Every line holds one flight:\n");
+		System.out.print("cost,num_stops,departure,arrival,arrival_airport,departure_airport,plane_id,pilot_id\n");
+		System.out.println("\033[0m");
+
+		do {
+			System.out.println("\033[32m");
+			System.out.print("What is the path of the file?\n");
+			System.out.println("\033[0m");
+
+			try {
+				file = in.readLine().trim();
+
+				if (!new File(file).isFile()) {
+					System.out.println("\033[1;31m");
+					System.out.println("Error: There is no such file.");
+					System.out.println("\033[0m");
+				}
+				else {
+					break;
+				}
+			}catch (Exception e) {
+				System.out.println("\033[1;31m");
+				System.out.println("Your input for the path of the file is invalid!");
+				System.out.println("\033[0m");
+				continue;
+			}
+		}while (true);
+
+		try {
+			long start = System.nanoTime();
+			int added = FlightImporter.importFile(esql, file);
+			System.out.println("\033[1;31m");
+			System.out.println(String.format("%d flights were added in %.2f s.", added, (System.nanoTime() - start) / 1e9));
+			System.out.println("\033[0m");
+		}catch (Exception e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Asks whether to show the next page.
+	 *
+	 * @return true when the user wants the next page
+	 */
+	public static boolean readNextPage() {
+		System.out.println("\033[32m");
+		System.out.print("Press Enter for the next page or q to stop.\n");
+		System.out.println("\033[0m");
+		try {
+			String answer = in.readLine();
+			return answer != null && !answer.trim().equalsIgnoreCase("q");
+		}catch (Exception e) {
+			return false;
+		}
+	}
+
+	public static void ListCustomerReservations(DBproject esql) {//14
+		int cid;
+
+		System.out.println("\033[36m");
+		System.out.print("You have selected to list the reservations of a customer. Please enter the following information.\n");
+		System.out.println("\033[0m");
+
+		do {
+			System.out.println("\033[32m");
+			System.out.print("What is the id of the customer?\n");
+			System.out.println("\033[0m");
+
+			try {
+				cid = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("\033[1;31m");
+				System.out.println("Your input for the customer id is invalid! Please try again.");
+				System.out.println("\033[0m");
+				continue;
+			}
+		}while (true);
+
+		try {
+			// keyset pagination: every page starts after the last rnum shown,
+			// so it is one seek on (cid, rnum) however deep the page is
+			int last_rnum = -1;
+			int shown = 0;
+			do {
+				String query = String.format("SELECT R.rnum, R.fid, R.status, F.departure_airport, F.arrival_airport, F.actual_departure_date, F.actual_arrival_date FROM Reservation R, Flight F WHERE F.fnum = R.fid AND R.departure_month = %s AND R.cid = %d AND R.rnum > %d ORDER BY R.rnum LIMIT %d", DEPARTURE_MONTH, cid, last_rnum, PAGE_SIZE);
+				List<List<String>> page = esql.executeQueryAndReturnResult(query, PAGE_SIZE);
+
+				System.out.println("\033[1;31m");
+				if (shown == 0) {
+					System.out.println("rnum\tflight\tstatus\tfrom\tto\tdeparture\tarrival");
+				}
+				for (List<String> row : page) {
+					System.out.println(String.join("\t", row));
+				}
+				System.out.println("\033[0m");
+				shown += page.size();
+
+				if (page.size() < PAGE_SIZE) {
+					System.out.println(String.format("Customer %d has %d reservations.", cid, shown));
+					break;
+				}
+				last_rnum = Integer.parseInt(page.get(page.size() - 1).get(0));
+			}while (readNextPage());
+		}catch (Exception e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	public static void SearchCustomers(DBproject esql) {//15
+		String search;
+
+		System.out.println("\033[36m");
+		System.out.print("You have selected to search customers. Please enter the following information.\n");
+		System.out.println("\033[0m");
+
+		do {
+			System.out.println("\033[32m");
+			System.out.print("What is the start of the last name, or the phone number, of the customer?\n");
+			System.out.println("\033[0m");
+
+			try {
+				search = in.readLine().trim();
+
+				Pattern pattern = Pattern.compile("[a-zA-Z]+|[0-9]{10}");
+				Matcher matcher = pattern.matcher(search);
+				boolean match = matcher.matches();
+
+				if (!match) {
+					System.out.println("\033[1;31m");
+					System.out.println("ERROR: Your input has to be letters or a 10 digit phone number.");
+					System.out.println("\033[0m");
+				}
+				else {
+					break;
+				}
+			}catch (Exception e) {
+				System.out.println("\033[1;31m");
+				System.out.println("Your input for the search is invalid!");
+				System.out.println("\033[0m");
+				continue;
+			}
+		}while (true);
+
+		try {
+			boolean by_phone = Character.isDigit(search.charAt(0));
+			// keyset pagination on (lname, id) or (phone, id), see customer_lname_idx and customer_phone_idx
+			String last_name = "";
+			int last_id = -1;
+			int shown = 0;
+			do {
+				String query;
+				if (by_phone) {
+					query = String.format("SELECT id, fname, lname, phone, zipcode FROM Customer WHERE phone = '%s' AND id > %d ORDER BY phone, id LIMIT %d", search, last_id, PAGE_SIZE);
+				}
+				else {
+					query = String.format("SELECT id, fname, lname, phone, zipcode FROM Customer WHERE lname COLLATE \"C\" LIKE '%s%%' AND (lname COLLATE \"C\", id) > ('%s', %d) ORDER BY lname COLLATE \"C\", id LIMIT %d", search, last_name, last_id, PAGE_SIZE);
+				}
+				List<List<String>> page = esql.executeQueryAndReturnResult(query, PAGE_SIZE);
+
+				System.out.println("\033[1;31m");
+				if (shown == 0) {
+					System.out.println("id\tfirst name\tlast name\tphone\t\tzipcode");
+				}
+				for (List<String> row : page) {
+					System.out.println(String.join("\t", row));
+				}
+				System.out.println("\033[0m");
+				shown += page.size();
+
+				if (page.size() < PAGE_SIZE) {
+					System.out.println(String.format("%d customers found.", shown));
+					break;
+				}
+				last_id = Integer.parseInt(page.get(page.size() - 1).get(0));
+				last_name = page.get(page.size() - 1).get(2).replace("'", "''");
+			}while (readNextPage());
+		}catch (Exception e) {
+			System.err.println(e.getMessage());
+		}
+	}
 }
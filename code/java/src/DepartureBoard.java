@@ -0,0 +1,176 @@
+/*
+ * Departure and arrival boards
+ * ============================
+ *
+ * In-memory time index over Schedule joined to Flight.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class keeps, for every airport, the scheduled departures and the
+ * scheduled arrivals in primitive arrays sorted by time.  A window query is
+ * two binary searches and a copy of the matching slice.  Times are seconds
+ * since the epoch, reading the Schedule timestamps as UTC.  The boards are a
+ * snapshot: DBproject adds the flights its own session writes and reloads
+ * them after -Ddbproject.boardMaxAgeMs to pick up everything else.
+ */
+
+public class DepartureBoard{
+
+	/**
+	 * The flights of one airport in one direction, sorted by time.
+	 */
+	static class Board{
+		long[] times = new long[16];
+		long[] otherTimes = new long[16];
+		int[] flights = new int[16];
+		int size = 0;
+
+		/**
+		 * Returns the first position whose time is not before t.
+		 */
+		int lowerBound(long t) {
+			int lo = 0, hi = this.size;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.times[mid] < t) lo = mid + 1;
+				else hi = mid;
+			}
+			return lo;
+		}
+
+		/**
+		 * Returns the first position whose time is after t.
+		 */
+		int upperBound(long t) {
+			int lo = 0, hi = this.size;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.times[mid] <= t) lo = mid + 1;
+				else hi = mid;
+			}
+			return lo;
+		}
+
+		void insert(long time, long otherTime, int fnum) {
+			if (this.size == this.times.length) {
+				this.times = Arrays.copyOf(this.times, this.size * 2);
+				this.otherTimes = Arrays.copyOf(this.otherTimes, this.size * 2);
+				this.flights = Arrays.copyOf(this.flights, this.size * 2);
+			}
+			// equal times keep their insertion order
+			int pos = upperBound(time);
+			System.arraycopy(this.times, pos, this.times, pos + 1, this.size - pos);
+			System.arraycopy(this.otherTimes, pos, this.otherTimes, pos + 1, this.size - pos);
+			System.arraycopy(this.flights, pos, this.flights, pos + 1, this.size - pos);
+			this.times[pos] = time;
+			this.otherTimes[pos] = otherTime;
+			this.flights[pos] = fnum;
+			++this.size;
+		}
+	}
+
+	/**
+	 * The flights of a window.  For a departure board times are departures
+	 * and otherTimes arrivals, for an arrival board the other way around.
+	 */
+	public static class Window{
+		public final int[] flights;
+		public final long[] times;
+		public final long[] otherTimes;
+
+		Window(Board board, int from, int to) {
+			this.flights = Arrays.copyOfRange(board.flights, from, to);
+			this.times = Arrays.copyOfRange(board.times, from, to);
+			this.otherTimes = Arrays.copyOfRange(board.otherTimes, from, to);
+		}
+	}
+
+	private final Map<String, Board> _departures = new HashMap<String, Board>();
+	private final Map<String, Board> _arrivals = new HashMap<String, Board>();
+
+	/**
+	 * Builds the boards from Schedule joined to Flight.  The rows come back
+	 * ordered by time, so every board is filled by appending.
+	 *
+	 * @param esql connection to load from
+	 * @return the loaded boards
+	 * @throws java.sql.SQLException when failed to read the schedule
+	 */
+	public static DepartureBoard load(DBproject esql) throws SQLException {
+		DepartureBoard board = new DepartureBoard();
+		String columns = "SELECT S.flightNum, CAST(EXTRACT(EPOCH FROM S.departure_time) AS BIGINT), CAST(EXTRACT(EPOCH FROM S.arrival_time) AS BIGINT), F.departure_airport, F.arrival_airport FROM Schedule S, Flight F WHERE F.fnum = S.flightNum ";
+		for (List<String> row : esql.executeQueryAndReturnResult(columns + "ORDER BY S.departure_time")) {
+			Board b = board.board(board._departures, row.get(3));
+			b.insert(Long.parseLong(row.get(1)), Long.parseLong(row.get(2)), Integer.parseInt(row.get(0)));
+		}
+		for (List<String> row : esql.executeQueryAndReturnResult(columns + "ORDER BY S.arrival_time")) {
+			Board b = board.board(board._arrivals, row.get(4));
+			b.insert(Long.parseLong(row.get(2)), Long.parseLong(row.get(1)), Integer.parseInt(row.get(0)));
+		}
+		return board;
+	}
+
+	private Board board(Map<String, Board> boards, String airport) {
+		Board b = boards.get(airport);
+		if (b == null) {
+			b = new Board();
+			boards.put(airport, b);
+		}
+		return b;
+	}
+
+	/**
+	 * Adds a scheduled flight to both boards.
+	 */
+	public synchronized void add(int fnum, String departureAirport, String arrivalAirport, long departure, long arrival) {
+		board(this._departures, departureAirport).insert(departure, arrival, fnum);
+		board(this._arrivals, arrivalAirport).insert(arrival, departure, fnum);
+	}
+
+	/**
+	 * Returns the flights departing from an airport in [from, to].
+	 */
+	public synchronized Window departures(String airport, long from, long to) {
+		return window(this._departures.get(airport.trim()), from, to);
+	}
+
+	/**
+	 * Returns the flights arriving at an airport in [from, to].
+	 */
+	public synchronized Window arrivals(String airport, long from, long to) {
+		return window(this._arrivals.get(airport.trim()), from, to);
+	}
+
+	private static Window window(Board b, long from, long to) {
+		if (b == null) b = new Board();
+		int lo = b.lowerBound(from);
+		return new Window(b, lo, Math.max(lo, b.upperBound(to)));
+	}
+
+	/**
+	 * Converts a 'YYYY-MM-DD HH:MM' time to the seconds used by the boards.
+	 */
+	public static long toSeconds(String time) {
+		return LocalDateTime.parse(time.trim().replace(' ', 'T')).toEpochSecond(ZoneOffset.UTC);
+	}
+
+	/**
+	 * Converts seconds used by the boards back to 'YYYY-MM-DD HH:MM'.
+	 */
+	public static String toTime(long seconds) {
+		return LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC).toString().replace('T', ' ');
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * Dynamic fares
+ * =============
+ *
+ * Reprices Flight.cost from the load factor and the days to departure.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * This class computes the fare of every flight as
+ *
+ *   base_cost * load curve(num_sold / seats) * days curve(days to departure)
+ *
+ * The flights are read with one COPY straight into primitive arrays, the
+ * fares are computed by several threads over disjoint index ranges without
+ * allocating, and only the changed fares are written back with
+ * UPDATE ... FROM (VALUES ...), one short transaction per batch so bookings
+ * never wait long for a flight row.
+ *
+ * Flight.base_cost is the fare set when the flight was added; it is NULL
+ * until the flight is repriced for the first time, and cost is the base fare
+ * then.  Every pass starts from the base fare, so a pass can be repeated or
+ * interrupted safely.  Flights that departed or have no plane keep their fare.
+ *
+ * A curve is a list of x:multiplier points, linear in between and flat
+ * beyond the first and last point.
+ *
+ * Options are system properties:
+ *   fare.loadCurve   load factor curve (default 0:0.8,0.5:1,0.8:1.25,0.95:1.6,1:2)
+ *   fare.daysCurve   days to departure curve (default 0:1.4,3:1.25,14:1.1,30:1,90:0.9)
+ *   fare.roundTo     fares are rounded to a multiple of this (default 1)
+ *   fare.asOf        'YYYY-MM-DD HH:MM' to price at instead of now
+ *   fare.threads     repricing threads (default the number of cores)
+ *   fare.batch       flights per UPDATE (default 1000)
+ *   fare.dryRun      true to only report the new fares (default false)
+ */
+
+public class FareEngine{
+	static final String DEFAULT_LOAD_CURVE = "0:0.8,0.5:1,0.8:1.25,0.95:1.6,1:2";
+	static final String DEFAULT_DAYS_CURVE = "0:1.4,3:1.25,14:1.1,30:1,90:0.9";
+	static final int FIELDS = 6;
+
+	private final double[] _loadX;
+	private final double[] _loadY;
+	private final double[] _daysX;
+	private final double[] _daysY;
+	private final int _roundTo;
+
+	// one flight per index, in fnum order
+	int size = 0;
+	int[] fnums = new int[1024];
+	int[] baseFares = new int[1024];
+	int[] fares = new int[1024];
+	int[] sold = new int[1024];
+	int[] seats = new int[1024];
+	long[] departures = new long[1024];
+	int[] newFares = new int[0];
+
+	public FareEngine(String loadCurve, String daysCurve, int roundTo) {
+		double[][] load = parseCurve(loadCurve);
+		double[][] days = parseCurve(daysCurve);
+		this._loadX = load[0];
+		this._loadY = load[1];
+		this._daysX = days[0];
+		this._daysY = days[1];
+		this._roundTo = Math.max(1, roundTo);
+	}
+
+	/**
+	 * Parses a curve like '0:0.8,0.5:1,1:2'.
+	 *
+	 * @return the x values and the multipliers, sorted by x
+	 */
+	static double[][] parseCurve(String curve) {
+		String[] points = curve.split(",");
+		double[][] xy = new double[2][points.length];
+		for (int i = 0; i < points.length; ++i) {
+			String[] p = points[i].split(":");
+			if (p.length != 2) throw new IllegalArgumentException("curve points must be x:multiplier, got " + points[i]);
+			xy[0][i] = Double.parseDouble(p[0].trim());
+			xy[1][i] = Double.parseDouble(p[1].trim());
+			if (xy[1][i] <= 0) throw new IllegalArgumentException("curve multipliers must be positive, got " + points[i]);
+			if (i > 0 && xy[0][i] <= xy[0][i - 1]) throw new IllegalArgumentException("curve points must be in increasing order: " + curve);
+		}
+		return xy;
+	}
+
+	/**
+	 * Returns the multiplier of a curve at x.
+	 */
+	static double interpolate(double[] xs, double[] ys, double x) {
+		if (x <= xs[0]) return ys[0];
+		for (int i = 1; i < xs.length; ++i) {
+			if (x <= xs[i]) return ys[i - 1] + (ys[i] - ys[i - 1]) * (x - xs[i - 1]) / (xs[i] - xs[i - 1]);
+		}
+		return ys[ys.length - 1];
+	}
+
+	/**
+	 * Parses the rows of COPY ... TO STDOUT (FORMAT csv) of integer columns
+	 * as they arrive and appends them to the arrays.  NULL reads as 0.
+	 */
+	class Loader extends OutputStream{
+		private final long[] _row = new long[FIELDS];
+		private int _field = 0;
+		private long _value = 0;
+		private boolean _negative = false;
+
+		@Override
+		public void write(int b) {
+			accept((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			for (int i = off; i < off + len; ++i)
+				accept(b[i]);
+		}
+
+		private void accept(byte c) {
+			if (c >= '0' && c <= '9') {
+				this._value = this._value * 10 + (c - '0');
+			}
+			else if (c == '-') {
+				this._negative = true;
+			}
+			else if (c == ',' || c == '\n') {
+				if (this._field < FIELDS) this._row[this._field++] = this._negative ? -this._value : this._value;
+				this._value = 0;
+				this._negative = false;
+				if (c == '\n') {
+					add(this._row);
+					this._field = 0;
+				}
+			}
+		}
+	}
+
+	void add(long[] row) {
+		if (this.size == this.fnums.length) {
+			int capacity = this.size * 2;
+			this.fnums = Arrays.copyOf(this.fnums, capacity);
+			this.baseFares = Arrays.copyOf(this.baseFares, capacity);
+			this.fares = Arrays.copyOf(this.fares, capacity);
+			this.sold = Arrays.copyOf(this.sold, capacity);
+			this.seats = Arrays.copyOf(this.seats, capacity);
+			this.departures = Arrays.copyOf(this.departures, capacity);
+		}
+		this.fnums[this.size] = (int) row[0];
+		this.baseFares[this.size] = (int) row[1];
+		this.fares[this.size] = (int) row[2];
+		this.sold[this.size] = (int) row[3];
+		this.seats[this.size] = (int) row[4];
+		this.departures[this.size] = row[5];
+		++this.size;
+	}
+
+	/**
+	 * Reads fnum, base fare, fare, num_sold, seats and departure of every
+	 * flight.  Departures are seconds since the epoch, reading the flight
+	 * timestamps as UTC like DepartureBoard.
+	 *
+	 * @param esql connection to read from
+	 * @return the number of flights read
+	 * @throws java.sql.SQLException when failed to read the flights
+	 */
+	public int load(DBproject esql) throws SQLException {
+		this.size = 0;
+		String flights = "SELECT F.fnum, COALESCE(F.base_cost, F.cost), F.cost, F.num_sold, COALESCE(S.seats, 0), CAST(EXTRACT(EPOCH FROM F.actual_departure_date) AS BIGINT) "
+			+ "FROM Flight F LEFT JOIN (SELECT FL.flight_id, MAX(P.seats) AS seats FROM FlightInfo FL, Plane P WHERE P.id = FL.plane_id GROUP BY FL.flight_id) S ON S.flight_id = F.fnum "
+			+ "ORDER BY F.fnum";
+		try {
+			// the primary, since the current fares decide which rows are written
+			esql.copyOut("COPY (" + flights + ") TO STDOUT WITH (FORMAT csv)", new Loader(), true);
+		}catch (java.io.IOException e) {
+			throw new SQLException(e.getMessage(), e);
+		}
+		this.newFares = new int[this.size];
+		return this.size;
+	}
+
+	/**
+	 * Computes the new fares of the flights in [from, to).
+	 *
+	 * @param asOf the pricing time in seconds since the epoch
+	 */
+	void reprice(int from, int to, long asOf) {
+		for (int i = from; i < to; ++i) {
+			long seconds = this.departures[i] - asOf;
+			if (seconds < 0 || this.seats[i] <= 0) {
+				this.newFares[i] = this.fares[i];
+				continue;
+			}
+			double load = Math.min(1.0, (double) this.sold[i] / this.seats[i]);
+			double fare = this.baseFares[i]
+				* interpolate(this._loadX, this._loadY, load)
+				* interpolate(this._daysX, this._daysY, seconds / 86400.0);
+			this.newFares[i] = (int) Math.max(1, Math.round(fare / this._roundTo) * this._roundTo);
+		}
+	}
+
+	/**
+	 * Computes the new fares of all loaded flights, splitting the flights
+	 * into one range per thread.
+	 *
+	 * @param asOf the pricing time in seconds since the epoch
+	 * @param threads the number of threads
+	 * @return the number of flights whose fare changed
+	 */
+	public int repriceAll(long asOf, int threads) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> parts = new ArrayList<Future<?>>();
+			int step = (this.size + threads - 1) / threads;
+			for (int lo = 0; lo < this.size; lo += step) {
+				final int from = lo, to = Math.min(lo + step, this.size);
+				parts.add(pool.submit(() -> reprice(from, to, asOf)));
+			}
+			for (Future<?> part : parts)
+				part.get();
+		}catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}finally{
+			pool.shutdown();
+		}
+
+		int changed = 0;
+		for (int i = 0; i < this.size; ++i) {
+			if (this.newFares[i] != this.fares[i]) ++changed;
+		}
+		return changed;
+	}
+
+	/**
+	 * Writes the changed fares, batch rows per UPDATE.  Each UPDATE commits
+	 * on its own; base_cost is filled in on the first reprice of a flight.
+	 *
+	 * @param esql connection to write to
+	 * @param batch the number of flights per UPDATE
+	 * @return the number of flights written
+	 * @throws java.sql.SQLException when an UPDATE failed, the earlier batches stay written
+	 */
+	public int write(DBproject esql, int batch) throws SQLException {
+		StringBuilder values = new StringBuilder();
+		int rows = 0, written = 0;
+		for (int i = 0; i < this.size; ++i) {
+			if (this.newFares[i] == this.fares[i]) continue;
+			values.append(rows == 0 ? "" : ", ").append('(').append(this.fnums[i]).append(", ")
+				.append(this.baseFares[i]).append(", ").append(this.newFares[i]).append(')');
+			if (++rows == batch) {
+				written += update(esql, values, rows);
+				rows = 0;
+			}
+		}
+		if (rows > 0) written += update(esql, values, rows);
+		return written;
+	}
+
+	private static int update(DBproject esql, StringBuilder values, int rows) throws SQLException {
+		esql.executeUpdate("UPDATE Flight F SET cost = V.cost, base_cost = COALESCE(F.base_cost, V.base_cost) FROM (VALUES " + values + ") AS V(fnum, base_cost, cost) WHERE F.fnum = V.fnum");
+		values.setLength(0);
+		return rows;
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args the command line arguments <dbname> <port> <user>
+	 */
+	public static void main (String[] args) {
+		if (args.length != 3) {
+			System.err.println (
+				"Usage: " + "java [-Dfare.loadCurve=x:m,... ...] [-classpath <classpath>] " + FareEngine.class.getName () +
+		            " <dbname> <port> <user>");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		try{
+			FareEngine engine = new FareEngine(
+				System.getProperty("fare.loadCurve", DEFAULT_LOAD_CURVE),
+				System.getProperty("fare.daysCurve", DEFAULT_DAYS_CURVE),
+				Integer.getInteger("fare.roundTo", 1));
+			long asOf = System.getProperty("fare.asOf") != null
+				? DepartureBoard.toSeconds(System.getProperty("fare.asOf"))
+				: LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+			int threads = Integer.getInteger("fare.threads", Runtime.getRuntime().availableProcessors());
+			int batch = Integer.getInteger("fare.batch", 1000);
+			boolean dryRun = Boolean.getBoolean("fare.dryRun");
+
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject (args[0], args[1], args[2], "");
+
+			long start = System.nanoTime();
+			int flights = engine.load(esql);
+			long loaded = System.nanoTime();
+			int changed = engine.repriceAll(asOf, threads);
+			long repriced = System.nanoTime();
+			int written = dryRun ? 0 : engine.write(esql, batch);
+			long end = System.nanoTime();
+
+			if (dryRun) {
+				System.out.println("fnum\tseats\tnum_sold\tbase\tfare\tnew fare");
+				for (int i = 0; i < engine.size; ++i) {
+					if (engine.newFares[i] != engine.fares[i])
+						System.out.println(String.format("%d\t%d\t%d\t%d\t%d\t%d", engine.fnums[i], engine.seats[i], engine.sold[i], engine.baseFares[i], engine.fares[i], engine.newFares[i]));
+				}
+			}
+			System.out.println(String.format("Priced %d flights as of %s: %d changed, %d written (load %.2f s, reprice %.3f s on %d threads, write %.2f s)",
+				flights, DepartureBoard.toTime(asOf), changed, written, (loaded - start) / 1e9, (repriced - loaded) / 1e9, threads, (end - repriced) / 1e9));
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}finally{
+			if (esql != null) esql.cleanup ();
+		}
+	}
+}
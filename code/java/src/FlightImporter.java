@@ -0,0 +1,363 @@
+/*
+ * Bulk flight import
+ * ==================
+ *
+ * Adds flights together with their FlightInfo and Schedule rows.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+
+/**
+ * This class imports flights.  Every flight is validated in memory against
+ * the planes, the pilots, the flights already scheduled and the flights
+ * accepted earlier in the same import; then all flights are written to Flight,
+ * FlightInfo and Schedule in one transaction with multi-row INSERTs sent as
+ * a JDBC batch.  Either every flight of an import is added or none is.
+ *
+ * The input is a CSV file without header, one flight per line:
+ *
+ *   cost,num_stops,departure,arrival,arrival_airport,departure_airport,plane_id,pilot_id
+ *
+ * with times as 'YYYY-MM-DD HH:MM' or 'YYYY-MM-DD'.  New flights start with
+ * no seats sold; num_sold only grows with the bookings made for them.
+ */
+
+public class FlightImporter{
+	static final int ROWS_PER_INSERT = 1000;
+	static final Pattern AIRPORT = Pattern.compile("[A-Z]{5}");
+
+	/**
+	 * One flight to import.
+	 */
+	public static class FlightRow{
+		public int cost;
+		public int stops;
+		public String departure;
+		public String arrival;
+		public String arrivalAirport;
+		public String departureAirport;
+		public int planeId;
+		public int pilotId;
+
+		/**
+		 * Parses one line of an import file.
+		 */
+		static FlightRow parse(String line) {
+			String[] f = line.split(",");
+			if (f.length != 8)
+				throw new IllegalArgumentException("expected 8 fields, got " + f.length);
+			FlightRow r = new FlightRow();
+			r.cost = Integer.parseInt(f[0].trim());
+			r.stops = Integer.parseInt(f[1].trim());
+			r.departure = f[2].trim();
+			r.arrival = f[3].trim();
+			r.arrivalAirport = f[4].trim().toUpperCase();
+			r.departureAirport = f[5].trim().toUpperCase();
+			r.planeId = Integer.parseInt(f[6].trim());
+			r.pilotId = Integer.parseInt(f[7].trim());
+			return r;
+		}
+	}
+
+	private final Set<Integer> _planes = new HashSet<Integer>();
+	private final Set<Integer> _pilots = new HashSet<Integer>();
+	private final Set<String> _partitions = new HashSet<String>();
+	private final AssignmentConflicts _conflicts;
+
+	//the attached monthly partitions of Reservation, see reservationPartitions.sh
+	static final String PARTITIONS = "SELECT C.relname FROM pg_inherits I, pg_class C WHERE I.inhrelid = C.oid AND I.inhparent = 'reservation'::regclass";
+
+	/**
+	 * Loads the planes, the pilots, the Reservation partitions and the current
+	 * assignments used to validate flights, all from the primary.
+	 *
+	 * @param esql connection to load from
+	 * @throws java.sql.SQLException when failed to read the reference data
+	 */
+	public FlightImporter(DBproject esql) throws SQLException {
+		for (List<String> row : esql.executeQueryAndReturnResult("SELECT id FROM Plane", true))
+			this._planes.add(Integer.parseInt(row.get(0)));
+		for (List<String> row : esql.executeQueryAndReturnResult("SELECT id FROM Pilot", true))
+			this._pilots.add(Integer.parseInt(row.get(0)));
+		for (List<String> row : esql.executeQueryAndReturnResult(PARTITIONS, true))
+			this._partitions.add(row.get(0));
+		this._conflicts = AssignmentConflicts.load(esql, true);
+	}
+
+	/**
+	 * Converts 'YYYY-MM-DD' or 'YYYY-MM-DD HH:MM' to a LocalDateTime.
+	 */
+	static LocalDateTime parseTime(String time) {
+		String t = time.length() == 10 ? time + " 00:00" : time;
+		return LocalDateTime.parse(t.replace(' ', 'T'));
+	}
+
+	/**
+	 * Returns the name of the Reservation partition that the bookings of a
+	 * flight go to, the one of its departure month.
+	 */
+	static String partitionOf(FlightRow r) {
+		LocalDateTime departure = parseTime(r.departure);
+		return String.format("reservation_y%04dm%02d", departure.getYear(), departure.getMonthValue());
+	}
+
+	/**
+	 * Checks the fields of one flight that do not depend on other rows.
+	 *
+	 * @return the reason the flight is invalid, or null when it is valid
+	 */
+	static String checkFields(FlightRow r) {
+		if (r.cost <= 0) return "cost must be positive";
+		if (r.stops < 0) return "number of stops must not be negative";
+		if (!AIRPORT.matcher(r.arrivalAirport).matches()) return "arrival airport must be 5 letters: " + r.arrivalAirport;
+		if (!AIRPORT.matcher(r.departureAirport).matches()) return "departure airport must be 5 letters: " + r.departureAirport;
+
+		LocalDateTime departure, arrival;
+		try {
+			departure = parseTime(r.departure);
+			arrival = parseTime(r.arrival);
+		}catch (Exception e) {
+			return "times must be YYYY-MM-DD HH:MM";
+		}
+		if (!arrival.isAfter(departure)) return "arrival must be after departure";
+		return null;
+	}
+
+	/**
+	 * Checks one flight.  Pilot and plane conflicts are checked against the
+	 * flights in the database and the flights accepted before it.
+	 *
+	 * @return the reason the flight is invalid, or null when it is valid
+	 */
+	public String validate(FlightRow r) {
+		String error = checkFields(r);
+		if (error != null) return error;
+
+		if (!this._planes.contains(r.planeId)) return "no plane with id " + r.planeId;
+		if (!this._pilots.contains(r.pilotId)) return "no pilot with id " + r.pilotId;
+		if (!this._partitions.contains(partitionOf(r))) return "no Reservation partition for the departure month, attach " + partitionOf(r) + " first";
+
+		return this._conflicts.check(r.pilotId, r.planeId, seconds(r.departure), seconds(r.arrival));
+	}
+
+	/**
+	 * Takes a valid flight into the import, so the flights after it are
+	 * checked against its pilot and plane.
+	 *
+	 * @param line the line of the import file the flight comes from
+	 */
+	public void accept(FlightRow r, int line) {
+		this._conflicts.add(-line, r.pilotId, r.planeId, seconds(r.departure), seconds(r.arrival));
+	}
+
+	/**
+	 * Checks one flight with point queries on the primary, instead of
+	 * loading every plane, pilot and assignment as the constructor does.
+	 * For adding a single flight.
+	 *
+	 * @param esql connection to check against
+	 * @return the reason the flight is invalid, or null when it is valid
+	 * @throws java.sql.SQLException when failed to read the plane, pilot or schedule
+	 */
+	public static String validateOne(DBproject esql, FlightRow r) throws SQLException {
+		String error = checkFields(r);
+		if (error != null) return error;
+
+		if (esql.executeQueryAndReturnResult(String.format("SELECT id FROM Plane WHERE id = %d", r.planeId), true).isEmpty()) return "no plane with id " + r.planeId;
+		if (esql.executeQueryAndReturnResult(String.format("SELECT id FROM Pilot WHERE id = %d", r.pilotId), true).isEmpty()) return "no pilot with id " + r.pilotId;
+		if (esql.executeQueryAndReturnResult(String.format("%s AND C.relname = '%s'", PARTITIONS, partitionOf(r)), true).isEmpty()) return "no Reservation partition for the departure month, attach " + partitionOf(r) + " first";
+
+		// same overlap rule as AssignmentConflicts: departs before the arrival and arrives after the departure, and is not zero length
+		String overlap = "SELECT FI.flight_id FROM FlightInfo FI, Schedule S WHERE S.flightNum = FI.flight_id AND FI.%s = %d AND S.departure_time < '%s' AND S.arrival_time > '%s' AND S.arrival_time > S.departure_time LIMIT 1";
+		List<List<String>> flight = esql.executeQueryAndReturnResult(String.format(overlap, "pilot_id", r.pilotId, r.arrival, r.departure), true);
+		if (!flight.isEmpty()) return String.format("pilot %d already flies flight %s at that time", r.pilotId, flight.get(0).get(0));
+		flight = esql.executeQueryAndReturnResult(String.format(overlap, "plane_id", r.planeId, r.arrival, r.departure), true);
+		if (!flight.isEmpty()) return String.format("plane %d is already used by flight %s at that time", r.planeId, flight.get(0).get(0));
+		return null;
+	}
+
+	private static long seconds(String time) {
+		return DepartureBoard.toSeconds(parseTime(time).toString());
+	}
+
+	/**
+	 * Writes validated flights to Flight, FlightInfo and Schedule in one
+	 * transaction.  New ids come from flight_fnum_seq, flightinfo_fiid_seq and
+	 * schedule_id_seq, so Flight and Schedule are not locked and bookings go
+	 * on during an import.  FlightInfo is locked against other writers, and
+	 * under that lock the flights are checked once more against the pilots
+	 * and planes already assigned, so an add that committed after the
+	 * validation cannot be double-booked.
+	 *
+	 * @param esql connection to write to
+	 * @param rows the flights, already validated
+	 * @return the flight numbers of the flights, in order
+	 * @throws java.sql.SQLException when a flight conflicts or the import failed, and was rolled back
+	 */
+	public static int[] write(DBproject esql, List<FlightRow> rows) throws SQLException {
+		return write(esql, rows, null);
+	}
+
+	/**
+	 * Writes validated flights like write(esql, rows), under flight numbers
+	 * chosen by the caller, e.g. ShardRouter, which takes them from shard 0.
+	 *
+	 * @param esql connection to write to
+	 * @param rows the flights, already validated
+	 * @param fnums the flight numbers of the flights, or null to take them from flight_fnum_seq
+	 * @return the flight numbers of the flights, in order
+	 * @throws java.sql.SQLException when a flight conflicts or the import failed, and was rolled back
+	 */
+	public static int[] write(DBproject esql, List<FlightRow> rows, int[] fnums) throws SQLException {
+		int n = rows.size();
+		int[][] ids = esql.executeTransaction((Statement stmt) -> {
+			// other adds wait here, bookings do not touch FlightInfo
+			stmt.execute("LOCK TABLE FlightInfo IN SHARE ROW EXCLUSIVE MODE");
+			for (int lo = 0; lo < n; lo += ROWS_PER_INSERT) {
+				String error = conflict(stmt, rows, lo, Math.min(lo + ROWS_PER_INSERT, n));
+				if (error != null) throw new SQLException(error);
+			}
+
+			int[] numbers = fnums != null ? fnums : new int[n], fiids = new int[n], sids = new int[n];
+			ResultSet rs = stmt.executeQuery(String.format("SELECT nextval('flightinfo_fiid_seq'), nextval('schedule_id_seq'), %s FROM generate_series(1, %d)", fnums != null ? "0" : "nextval('flight_fnum_seq')", n));
+			for (int i = 0; rs.next(); ++i) {
+				fiids[i] = rs.getInt(1);
+				sids[i] = rs.getInt(2);
+				if (fnums == null) numbers[i] = rs.getInt(3);
+			}
+
+			for (int lo = 0; lo < n; lo += ROWS_PER_INSERT) {
+				int hi = Math.min(lo + ROWS_PER_INSERT, n);
+				StringBuilder flights = new StringBuilder("INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES ");
+				StringBuilder infos = new StringBuilder("INSERT INTO FlightInfo (fiid, flight_id, pilot_id, plane_id) VALUES ");
+				StringBuilder schedules = new StringBuilder("INSERT INTO Schedule (id, flightNum, departure_time, arrival_time) VALUES ");
+				for (int i = lo; i < hi; ++i) {
+					FlightRow r = rows.get(i);
+					String sep = i == lo ? "" : ", ";
+					flights.append(sep).append(String.format("(%d, %d, 0, %d, '%s', '%s', '%s', '%s')", numbers[i], r.cost, r.stops, r.departure, r.arrival, r.arrivalAirport, r.departureAirport));
+					infos.append(sep).append(String.format("(%d, %d, %d, %d)", fiids[i], numbers[i], r.pilotId, r.planeId));
+					schedules.append(sep).append(String.format("(%d, %d, '%s', '%s')", sids[i], numbers[i], r.departure, r.arrival));
+				}
+				stmt.addBatch(flights.toString());
+				stmt.addBatch(infos.toString());
+				stmt.addBatch(schedules.toString());
+			}
+			stmt.executeBatch();
+			return new int[][] {numbers, fiids, sids};
+		});
+
+		// the boards and the journal only see committed flights
+		for (int i = 0; i < n; ++i) {
+			FlightRow r = rows.get(i);
+			esql.addToDepartureBoard(ids[0][i], r.departureAirport, r.arrivalAirport,
+				DepartureBoard.toSeconds(parseTime(r.departure).toString()), DepartureBoard.toSeconds(parseTime(r.arrival).toString()));
+			esql.journal(BookingJournal.ADD_FLIGHT, ids[0][i], r.cost, r.stops, r.departure, r.arrival, r.arrivalAirport, r.departureAirport,
+				ids[1][i], r.pilotId, r.planeId, ids[2][i]);
+		}
+		return ids[0];
+	}
+
+	/**
+	 * Checks flights lo..hi-1 against the assignments in the database with
+	 * one query, by the same overlap rule as validateOne.
+	 *
+	 * @return the first conflict found, or null when there is none
+	 */
+	private static String conflict(Statement stmt, List<FlightRow> rows, int lo, int hi) throws SQLException {
+		StringBuilder values = new StringBuilder();
+		for (int i = lo; i < hi; ++i) {
+			FlightRow r = rows.get(i);
+			values.append(i == lo ? "" : ", ").append(String.format("(%d, %d, %d, TIMESTAMP '%s', TIMESTAMP '%s')", i, r.pilotId, r.planeId, r.departure, r.arrival));
+		}
+		ResultSet rs = stmt.executeQuery(String.format("SELECT N.i, FI.flight_id, FI.pilot_id = N.pilot FROM (VALUES %s) AS N(i, pilot, plane, dep, arr), FlightInfo FI, Schedule S WHERE S.flightNum = FI.flight_id AND (FI.pilot_id = N.pilot OR FI.plane_id = N.plane) AND S.departure_time < N.arr AND S.arrival_time > N.dep AND S.arrival_time > S.departure_time LIMIT 1", values));
+		if (!rs.next()) return null;
+		FlightRow r = rows.get(rs.getInt(1));
+		String flight = rows.size() == 1 ? "the flight" : "flight " + (rs.getInt(1) + 1) + " of the import";
+		if (rs.getBoolean(3)) return String.format("%s conflicts: pilot %d already flies flight %d at that time", flight, r.pilotId, rs.getInt(2));
+		return String.format("%s conflicts: plane %d is already used by flight %d at that time", flight, r.planeId, rs.getInt(2));
+	}
+
+	/**
+	 * Reads, validates and writes an import file.
+	 *
+	 * @param esql connection to write to
+	 * @param file path of the CSV file
+	 * @return the number of flights added, 0 when the file had invalid lines
+	 */
+	public static int importFile(DBproject esql, String file) throws SQLException, IOException {
+		FlightImporter importer = new FlightImporter(esql);
+		List<FlightRow> rows = new ArrayList<FlightRow>();
+		List<String> errors = new ArrayList<String>();
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line;
+			for (int n = 1; (line = reader.readLine()) != null; ++n) {
+				if (line.trim().isEmpty()) continue;
+				try {
+					FlightRow r = FlightRow.parse(line);
+					String error = importer.validate(r);
+					if (error == null) {
+						rows.add(r);
+						importer.accept(r, n);
+					}
+					else errors.add("line " + n + ": " + error);
+				}catch (Exception e) {
+					errors.add("line " + n + ": " + e.getMessage());
+				}
+			}
+		}
+
+		if (!errors.isEmpty()) {
+			for (int i = 0; i < Math.min(errors.size(), 20); ++i)
+				System.err.println(errors.get(i));
+			System.err.println(errors.size() + " invalid lines, nothing was imported");
+			return 0;
+		}
+		if (!rows.isEmpty()) write(esql, rows);
+		return rows.size();
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args the command line arguments <dbname> <port> <user> <file>
+	 */
+	public static void main (String[] args) {
+		if (args.length != 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + FlightImporter.class.getName () +
+		            " <dbname> <port> <user> <file>");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject (args[0], args[1], args[2], "");
+			long start = System.nanoTime();
+			int added = importFile(esql, args[3]);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("%d flights added in %.2f s (%.0f flights/s)", added, seconds, added / seconds));
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}finally{
+			if (esql != null) esql.cleanup ();
+		}
+	}
+}
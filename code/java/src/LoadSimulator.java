@@ -0,0 +1,285 @@
+/*
+ * Booking load simulator
+ * ======================
+ *
+ * Runs many concurrent agents against the database through DBproject and
+ * checks afterwards that no flight was oversold.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This class simulates booking agents.  Every agent is a thread that runs a
+ * random mix of bookings, available seat lookups and passenger counts,
+ * skewed towards a small set of hot flights.  The agents share a fixed pool
+ * of DBproject connections, like application servers behind a connection
+ * pool, so hundreds of agents fit in the default max_connections of the
+ * server.  Latencies include the wait for a free connection.
+ *
+ * Options are system properties:
+ *   loadsim.threads     number of agents (default 32)
+ *   loadsim.connections number of connections shared by the agents (default min(threads, 16))
+ *   loadsim.seconds     length of the run (default 30)
+ *   loadsim.mix         book:seats:count weights (default 20:40:40)
+ *   loadsim.hotFlights  size of the hot flight set (default 10)
+ *   loadsim.hotShare    share of operations on hot flights (default 0.8)
+ *
+ * At the end it prints throughput and latency percentiles per operation and
+ * verifies num_sold against Reservation and the C reservations against the
+ * plane capacity.
+ */
+
+public class LoadSimulator{
+	static final int BOOK = 0;
+	static final int SEATS = 1;
+	static final int COUNT = 2;
+	static final String[] OP_NAMES = {"book", "seats", "count"};
+
+	private final int[] _flights;
+	private final int[] _customers;
+	private final int[] _hot;
+	private final double _hotShare;
+	private final int[] _mix;
+
+	private final AtomicLong _errors = new AtomicLong();
+
+	public LoadSimulator(int[] flights, int[] customers, int hotFlights, double hotShare, int[] mix) {
+		this._flights = flights;
+		this._customers = customers;
+		this._hotShare = hotShare;
+		this._mix = mix;
+
+		// the hot set is a random sample of the flights
+		Random random = new Random(42);
+		this._hot = new int[Math.min(hotFlights, flights.length)];
+		for (int i = 0; i < this._hot.length; ++i)
+			this._hot[i] = flights[random.nextInt(flights.length)];
+	}
+
+	/**
+	 * Latencies of one worker in nanoseconds, one growable array per operation.
+	 */
+	static class Recorder{
+		long[][] samples = new long[OP_NAMES.length][1024];
+		int[] counts = new int[OP_NAMES.length];
+
+		void record(int op, long nanos) {
+			if (counts[op] == samples[op].length)
+				samples[op] = Arrays.copyOf(samples[op], counts[op] * 2);
+			samples[op][counts[op]++] = nanos;
+		}
+	}
+
+	private int pickFlight(Random random) {
+		if (this._hot.length > 0 && random.nextDouble() < this._hotShare)
+			return this._hot[random.nextInt(this._hot.length)];
+		return this._flights[random.nextInt(this._flights.length)];
+	}
+
+	private int pickOp(Random random) {
+		int total = this._mix[BOOK] + this._mix[SEATS] + this._mix[COUNT];
+		int r = random.nextInt(total);
+		if (r < this._mix[BOOK]) return BOOK;
+		if (r < this._mix[BOOK] + this._mix[SEATS]) return SEATS;
+		return COUNT;
+	}
+
+	/**
+	 * Runs operations until the deadline, each on a connection borrowed from
+	 * the pool.
+	 */
+	void work(BlockingQueue<DBproject> connections, long deadline, long seed, Recorder recorder) throws InterruptedException {
+		Random random = new Random(seed);
+		while (System.nanoTime() < deadline) {
+			int op = pickOp(random);
+			int fnum = pickFlight(random);
+			long start = System.nanoTime();
+			DBproject esql = connections.take();
+			try {
+				switch (op) {
+					case BOOK:
+						esql.bookFlight(this._customers[random.nextInt(this._customers.length)], fnum);
+						break;
+					case SEATS:
+						esql.executeQueryAndReturnResult(DBproject.availableSeatsQuery(fnum));
+						break;
+					case COUNT:
+						esql.executeQueryAndReturnResult(DBproject.passengerCountQuery(fnum, String.valueOf("CWR".charAt(random.nextInt(3)))));
+						break;
+				}
+				recorder.record(op, System.nanoTime() - start);
+			}catch (SQLException e) {
+				this._errors.incrementAndGet();
+			}finally{
+				connections.put(esql);
+			}
+		}
+	}
+
+	/**
+	 * Returns how many more connections the server accepts from ordinary users.
+	 */
+	static int freeConnections(DBproject esql) throws SQLException {
+		return Integer.parseInt(esql.executeQueryAndReturnResult("SELECT current_setting('max_connections')::int - current_setting('superuser_reserved_connections')::int - (SELECT COUNT(*) FROM pg_stat_activity WHERE backend_type = 'client backend')", true).get(0).get(0));
+	}
+
+	/**
+	 * Returns num_sold minus the seat holding reservations for every flight
+	 * where they differ.
+	 */
+	static Map<Integer, Integer> drift(DBproject esql) throws SQLException {
+		String query = "SELECT F.fnum, F.num_sold - COUNT(R.rnum) FROM Flight F LEFT JOIN Reservation R ON R.fid = F.fnum AND R.departure_month = " + DBproject.DEPARTURE_MONTH + " AND R.status IN " + DBproject.SOLD_STATUSES + " GROUP BY F.fnum, F.num_sold HAVING F.num_sold <> COUNT(R.rnum)";
+		Map<Integer, Integer> drift = new HashMap<Integer, Integer>();
+		for (List<String> row : esql.executeQueryAndReturnResult(query, true))
+			drift.put(Integer.parseInt(row.get(0)), Integer.parseInt(row.get(1)));
+		return drift;
+	}
+
+	static int[] ids(DBproject esql, String query) throws SQLException {
+		List<List<String>> rows = esql.executeQueryAndReturnResult(query, true);
+		int[] ids = new int[rows.size()];
+		for (int i = 0; i < ids.length; ++i)
+			ids[i] = Integer.parseInt(rows.get(i).get(0));
+		return ids;
+	}
+
+	static long percentile(long[] sorted, int n, double p) {
+		if (n == 0) return 0;
+		return sorted[Math.min(n - 1, (int) Math.ceil(p * n) - 1)];
+	}
+
+	static int[] parseMix(String mix) {
+		String[] parts = mix.split(":");
+		if (parts.length != 3)
+			throw new IllegalArgumentException("loadsim.mix must be book:seats:count, got " + mix);
+		int[] weights = new int[3];
+		for (int i = 0; i < 3; ++i)
+			weights[i] = Integer.parseInt(parts[i]);
+		return weights;
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args the command line arguments <dbname> <port> <user>
+	 */
+	public static void main (String[] args) {
+		if (args.length != 3) {
+			System.err.println (
+				"Usage: " + "java [-Dloadsim.threads=N ...] [-classpath <classpath>] " + LoadSimulator.class.getName () +
+		            " <dbname> <port> <user>");
+			return;
+		}//end if
+
+		int threads = Integer.getInteger("loadsim.threads", 32);
+		int connections = Integer.getInteger("loadsim.connections", Math.min(threads, 16));
+		int seconds = Integer.getInteger("loadsim.seconds", 30);
+		int[] mix = parseMix(System.getProperty("loadsim.mix", "20:40:40"));
+		int hotFlights = Integer.getInteger("loadsim.hotFlights", 10);
+		double hotShare = Double.parseDouble(System.getProperty("loadsim.hotShare", "0.8"));
+
+		DBproject admin = null;
+		DBproject[] workers = new DBproject[connections];
+		try{
+			Class.forName("org.postgresql.Driver");
+			admin = new DBproject (args[0], args[1], args[2], "");
+
+			// only flights with a plane can confirm seats
+			int[] flights = ids(admin, "SELECT DISTINCT flight_id FROM FlightInfo");
+			int[] customers = ids(admin, "SELECT id FROM Customer");
+			Map<Integer, Integer> before = drift(admin);
+
+			LoadSimulator sim = new LoadSimulator(flights, customers, hotFlights, hotShare, mix);
+			int free = freeConnections(admin);
+			if (connections > free) {
+				System.err.println(String.format("loadsim.connections=%d but the server accepts only %d more connections; lower loadsim.connections or raise max_connections", connections, free));
+				return;
+			}
+			BlockingQueue<DBproject> pool = new ArrayBlockingQueue<DBproject>(connections);
+			for (int i = 0; i < connections; ++i) {
+				workers[i] = new DBproject (args[0], args[1], args[2], "");
+				pool.add(workers[i]);
+			}
+
+			System.out.println(String.format("Running %d agents on %d connections for %d s, mix book:seats:count = %d:%d:%d, %d hot flights take %.0f%% of the load",
+				threads, connections, seconds, mix[BOOK], mix[SEATS], mix[COUNT], sim._hot.length, hotShare * 100));
+
+			Recorder[] recorders = new Recorder[threads];
+			Thread[] agents = new Thread[threads];
+			long start = System.nanoTime();
+			long deadline = start + seconds * 1000000000L;
+			for (int i = 0; i < threads; ++i) {
+				final int w = i;
+				recorders[w] = new Recorder();
+				agents[w] = new Thread(() -> {
+					try {
+						sim.work(pool, deadline, w, recorders[w]);
+					}catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}, "agent-" + w);
+				agents[w].start();
+			}
+			for (Thread t : agents)
+				t.join();
+			double elapsed = (System.nanoTime() - start) / 1e9;
+
+			// merges the latencies of all workers and prints the summary
+			System.out.println();
+			System.out.println("op\tcount\tops/s\tp50(ms)\tp95(ms)\tp99(ms)\tmax(ms)");
+			for (int op = 0; op < OP_NAMES.length; ++op) {
+				int n = 0;
+				for (Recorder r : recorders) n += r.counts[op];
+				long[] all = new long[n];
+				int pos = 0;
+				for (Recorder r : recorders) {
+					System.arraycopy(r.samples[op], 0, all, pos, r.counts[op]);
+					pos += r.counts[op];
+				}
+				Arrays.sort(all);
+				System.out.println(String.format("%s\t%d\t%.0f\t%.2f\t%.2f\t%.2f\t%.2f", OP_NAMES[op], n, n / elapsed,
+					percentile(all, n, 0.50) / 1e6, percentile(all, n, 0.95) / 1e6, percentile(all, n, 0.99) / 1e6,
+					n == 0 ? 0 : all[n - 1] / 1e6));
+			}
+			System.out.println("errors\t" + sim._errors.get());
+
+			// consistency checks
+			Map<Integer, Integer> after = drift(admin);
+			int changed = 0;
+			for (Map.Entry<Integer, Integer> e : after.entrySet()) {
+				if (!e.getValue().equals(before.get(e.getKey()))) {
+					System.out.println(String.format("num_sold drift changed on flight %d: %s -> %d", e.getKey(), before.get(e.getKey()), e.getValue()));
+					++changed;
+				}
+			}
+			for (Map.Entry<Integer, Integer> e : before.entrySet()) {
+				if (!after.containsKey(e.getKey())) ++changed;
+			}
+			System.out.println(String.format("num_sold: %d flights drifted before the run, %d after, %d changed by the run", before.size(), after.size(), changed));
+
+			String oversold = "SELECT FL.flight_id, P.seats, COUNT(*) FROM Reservation R, FlightInfo FL, Plane P WHERE R.fid = FL.flight_id AND FL.plane_id = P.id AND R.status = 'C' GROUP BY FL.flight_id, P.seats HAVING COUNT(*) > P.seats";
+			System.out.println("Oversold flights (flight, seats, confirmed):");
+			int rows = admin.executeQueryAndPrintResult(oversold);
+			System.out.println(rows == 0 ? "none" : rows + " oversold");
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}finally{
+			for (DBproject w : workers)
+				if (w != null) w.cleanup ();
+			if (admin != null) admin.cleanup ();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * num_sold reconciliation
+ * =======================
+ *
+ * Recomputes Flight.num_sold from Reservation and repairs the flights that
+ * drifted.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class walks Flight in fnum ranges of a fixed size.  For every range
+ * it compares num_sold with the seat holding reservations in one grouped
+ * scan (on the replica when one is configured), then repairs each drifted
+ * flight in its own short transaction on the primary.  Flights that are
+ * locked by a booking are skipped and retried at the end of the pass.
+ * Flights of a month whose Reservation partition was detached and archived
+ * are left alone, since their reservations are no longer there to count.
+ *
+ * Options are system properties:
+ *   reconcile.chunk       flights per range (default 500)
+ *   reconcile.pauseMs     pause between ranges (default 100)
+ *   reconcile.intervalS   run a pass every this many seconds, 0 for one pass (default 0)
+ *   reconcile.dryRun      true to only report the drift (default false)
+ */
+
+public class NumSoldReconciler{
+	private final DBproject _esql;
+	private final int _chunk;
+	private final long _pauseMillis;
+	private final boolean _dryRun;
+
+	public NumSoldReconciler(DBproject esql, int chunk, long pauseMillis, boolean dryRun) {
+		this._esql = esql;
+		this._chunk = chunk;
+		this._pauseMillis = pauseMillis;
+		this._dryRun = dryRun;
+	}
+
+	/**
+	 * Finds the drifted flights with fnum in [lo, hi].
+	 *
+	 * @return rows of fnum, num_sold, counted reservations
+	 */
+	List<int[]> scan(int lo, int hi) throws SQLException {
+		String query = String.format("SELECT F.fnum, F.num_sold, COUNT(R.rnum) FROM Flight F LEFT JOIN Reservation R ON R.fid = F.fnum AND R.departure_month = %s AND R.status IN %s WHERE F.fnum BETWEEN %d AND %d AND %s IS NOT NULL GROUP BY F.fnum, F.num_sold HAVING F.num_sold <> COUNT(R.rnum)", DBproject.DEPARTURE_MONTH, DBproject.SOLD_STATUSES, lo, hi, DBproject.RESERVATION_PARTITION);
+		List<int[]> drift = new ArrayList<int[]>();
+		for (List<String> row : this._esql.executeQueryAndReturnResult(query))
+			drift.add(new int[] {Integer.parseInt(row.get(0)), Integer.parseInt(row.get(1)), Integer.parseInt(row.get(2))});
+		return drift;
+	}
+
+	/**
+	 * Runs one pass over all flights and prints the drift report.
+	 */
+	public void pass() throws SQLException, InterruptedException {
+		List<List<String>> range = this._esql.executeQueryAndReturnResult("SELECT MIN(fnum), MAX(fnum) FROM Flight");
+		if (range.isEmpty() || range.get(0).get(0) == null) return;
+		int min = Integer.parseInt(range.get(0).get(0));
+		int max = Integer.parseInt(range.get(0).get(1));
+
+		long start = System.nanoTime();
+		int drifted = 0;
+		int repaired = 0;
+		long totalDrift = 0;
+		List<Integer> skipped = new ArrayList<Integer>();
+
+		System.out.println("fnum\tnum_sold\treserved\tdrift\taction");
+		for (long lo = min; lo <= max; lo += this._chunk) {
+			int hi = (int) Math.min(lo + this._chunk - 1, max);
+			for (int[] row : scan((int) lo, hi)) {
+				++drifted;
+				totalDrift += Math.abs(row[1] - row[2]);
+				String action = "reported";
+				if (!this._dryRun) {
+					if (this._esql.reconcileNumSold(row[0]) < 0) {
+						skipped.add(row[0]);
+						action = "locked, retry";
+					}
+					else {
+						++repaired;
+						action = "repaired";
+					}
+				}
+				System.out.println(String.format("%d\t%d\t%d\t%+d\t%s", row[0], row[1], row[2], row[1] - row[2], action));
+			}
+			// throttles the pass so it does not compete with bookings
+			Thread.sleep(this._pauseMillis);
+		}
+
+		// flights that were busy get one more try
+		for (int fnum : skipped) {
+			if (this._esql.reconcileNumSold(fnum) >= 0) ++repaired;
+		}
+
+		System.out.println(String.format("Checked flights %d..%d in %.2f s: %d drifted (total %d seats), %d repaired, %d still locked",
+			min, max, (System.nanoTime() - start) / 1e9, drifted, totalDrift, repaired, this._dryRun ? 0 : drifted - repaired));
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args the command line arguments <dbname> <port> <user> [<replica dbname> <replica port>]
+	 */
+	public static void main (String[] args) {
+		if (args.length != 3 && args.length != 5) {
+			System.err.println (
+				"Usage: " + "java [-Dreconcile.chunk=N ...] [-classpath <classpath>] " + NumSoldReconciler.class.getName () +
+		            " <dbname> <port> <user> [<replica dbname> <replica port>]");
+			return;
+		}//end if
+
+		int chunk = Integer.getInteger("reconcile.chunk", 500);
+		long pauseMillis = Long.getLong("reconcile.pauseMs", 100);
+		long intervalSeconds = Long.getLong("reconcile.intervalS", 0);
+		boolean dryRun = Boolean.getBoolean("reconcile.dryRun");
+
+		DBproject esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			if (args.length == 5)
+				esql = new DBproject (args[0], args[1], args[2], "", args[3], args[4], 1);
+			else
+				esql = new DBproject (args[0], args[1], args[2], "");
+
+			NumSoldReconciler reconciler = new NumSoldReconciler(esql, chunk, pauseMillis, dryRun);
+			do {
+				reconciler.pass();
+				Thread.sleep(intervalSeconds * 1000);
+			}while (intervalSeconds > 0);
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}finally{
+			if (esql != null) esql.cleanup ();
+		}
+	}
+}
@@ -0,0 +1,478 @@
+/*
+ * Hash sharded deployment
+ * =======================
+ *
+ * Routes operations over several Postgres databases.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * This class spreads the data over N databases.  A flight lives on shard
+ * shardOf(fnum) together with its Reservation, FlightInfo and Schedule rows;
+ * Repairs live on shardOf(plane_id).  Customer, Pilot, Plane and Technician
+ * are reference tables with a full copy on every shard, so every join of a
+ * flight with them stays local.
+ *
+ * Operations on one flight go to its shard.  Reports run on all shards in
+ * parallel and the partial results are merged here.
+ *
+ * Rows of reference tables are added and changed on every shard.  Shard 0
+ * owns the ids: a new id is taken there under a table lock and its row is
+ * inserted in the same transaction, so concurrent adds get distinct ids.
+ * The other shards follow one by one; there is no two-phase commit, so when
+ * one fails the shards written so far are undone (the row is deleted again)
+ * and only a failed undo is left to repair by hand.
+ *
+ * Flight numbers are owned by shard 0 as well: its flight_fnum_seq hands
+ * them out for all shards, and a new flight is then written on the shard of
+ * its number.  FlightInfo and Schedule ids come from each shard's own
+ * sequences, which step by the shard count like the reservation numbers.
+ *
+ * sql/shard_prune.sql has the same hash as shard_of() and
+ * postgresql/createShardedDB.sh builds the shards on one local server.
+ */
+
+public class ShardRouter{
+	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+
+	private final DBproject[] _shards;
+	private final ExecutorService _pool;
+
+	public ShardRouter(DBproject[] shards) {
+		this._shards = shards;
+		this._pool = Executors.newFixedThreadPool(shards.length);
+	}
+
+	/**
+	 * Returns the shard of a key.  Multiplicative (Knuth) hashing spreads
+	 * consecutive flight numbers over all shards.
+	 *
+	 * @param key a flight number, or a plane id for Repairs
+	 * @param shards the number of shards
+	 * @return the shard index, in [0, shards)
+	 */
+	public static int shardOf(int key, int shards) {
+		long hash = ((long) key * 2654435761L) % 4294967296L;
+		return (int) Math.floorMod(hash, (long) shards);
+	}
+
+	/**
+	 * Returns the connection of the shard that holds a flight.
+	 */
+	public DBproject forFlight(int fnum) {
+		return this._shards[shardOf(fnum, this._shards.length)];
+	}
+
+	/**
+	 * Applies an update to every shard, for the reference tables.  Every
+	 * shard is tried, also after a failure.
+	 *
+	 * @throws java.sql.SQLException with the shards that failed
+	 */
+	public void broadcastUpdate(String sql) throws SQLException {
+		List<String> failed = new ArrayList<String>();
+		for (int i = 0; i < this._shards.length; ++i) {
+			try {
+				this._shards[i].executeUpdate(sql);
+			}catch (SQLException e) {
+				failed.add("shard " + i + ": " + e.getMessage());
+			}
+		}
+		if (!failed.isEmpty())
+			throw new SQLException("Update failed on " + String.join("; ", failed));
+	}
+
+	/**
+	 * Adds a row to a reference table on every shard under the same new id.
+	 * When a shard fails, the row is deleted from the shards that have it.
+	 *
+	 * @param table Pilot, Plane, Technician or Customer
+	 * @param columns the columns after id
+	 * @param values the values after id, as SQL literals
+	 * @return the id of the new row
+	 * @throws java.sql.SQLException when the row could not be added to every shard
+	 */
+	public int addReference(String table, String columns, String values) throws SQLException {
+		int id = this._shards[0].executeTransaction((Statement stmt) -> {
+			// concurrent adds queue here, so each one sees the id of the one before
+			stmt.execute("LOCK TABLE " + table + " IN SHARE ROW EXCLUSIVE MODE");
+			ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id) + 1, 0) FROM " + table);
+			rs.next();
+			int next = rs.getInt(1);
+			stmt.executeUpdate(String.format("INSERT INTO %s (id, %s) VALUES (%d, %s)", table, columns, next, values));
+			return next;
+		});
+
+		for (int i = 1; i < this._shards.length; ++i) {
+			try {
+				this._shards[i].executeUpdate(String.format("INSERT INTO %s (id, %s) VALUES (%d, %s)", table, columns, id, values));
+			}catch (SQLException e) {
+				String undo = String.format("DELETE FROM %s WHERE id = %d", table, id);
+				List<String> left = new ArrayList<String>();
+				for (int j = i - 1; j >= 0; --j) {
+					try {
+						this._shards[j].executeUpdate(undo);
+					}catch (SQLException u) {
+						left.add(String.valueOf(j));
+					}
+				}
+				throw new SQLException(String.format("Adding %s %d failed on shard %d: %s; %s", table, id, i, e.getMessage(),
+					left.isEmpty() ? "it was removed from the other shards" : "it is still on shards " + String.join(", ", left)), e);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Changes a row of a reference table on every shard.
+	 *
+	 * @param table Pilot, Plane, Technician or Customer
+	 * @param id the id of the row
+	 * @param assignments the SET list, e.g. "seats = 180"
+	 * @throws java.sql.SQLException with the shards that failed
+	 */
+	public void updateReference(String table, int id, String assignments) throws SQLException {
+		broadcastUpdate(String.format("UPDATE %s SET %s WHERE id = %d", table, assignments, id));
+	}
+
+	/**
+	 * Runs a query on all shards in parallel and returns all rows.
+	 *
+	 * @param query the input query string
+	 * @return the rows of all shards, shard 0 first
+	 * @throws java.sql.SQLException when the query failed on a shard
+	 */
+	public List<List<String>> scatter(String query) throws SQLException {
+		List<Future<List<List<String>>>> parts = new ArrayList<Future<List<List<String>>>>();
+		for (DBproject shard : this._shards)
+			parts.add(this._pool.submit(() -> shard.executeQueryAndReturnResult(query)));
+
+		List<List<String>> rows = new ArrayList<List<String>>();
+		try {
+			for (Future<List<List<String>>> part : parts)
+				rows.addAll(part.get());
+		}catch (InterruptedException | ExecutionException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			throw new SQLException(cause.getMessage(), cause);
+		}
+		return rows;
+	}
+
+	/**
+	 * Number of repairs per plane in descending order.  All repairs of a
+	 * plane are on one shard, so the shard counts are final.
+	 */
+	public List<List<String>> repairsPerPlane() throws SQLException {
+		List<List<String>> rows = scatter("SELECT plane_id, COUNT(rid) FROM Repairs GROUP BY plane_id");
+		Collections.sort(rows, (a, b) -> Integer.compare(Integer.parseInt(b.get(1)), Integer.parseInt(a.get(1))));
+		return rows;
+	}
+
+	/**
+	 * Number of repairs per year in ascending order.  The shards count per
+	 * year and the counts of the same year are added up.
+	 */
+	public List<List<String>> repairsPerYear() throws SQLException {
+		Map<Integer, Integer> years = new TreeMap<Integer, Integer>();
+		for (List<String> row : scatter("SELECT CAST(EXTRACT(year FROM repair_date) AS INTEGER), COUNT(rid) FROM Repairs GROUP BY 1"))
+			years.merge(Integer.parseInt(row.get(0)), Integer.parseInt(row.get(1)), Integer::sum);
+
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (Map.Entry<Integer, Integer> year : years.entrySet()) {
+			List<String> row = new ArrayList<String>();
+			row.add(String.valueOf(year.getKey()));
+			row.add(String.valueOf(year.getValue()));
+			rows.add(row);
+		}
+		Collections.sort(rows, (a, b) -> Integer.compare(Integer.parseInt(a.get(1)), Integer.parseInt(b.get(1))));
+		return rows;
+	}
+
+	/**
+	 * Seat occupancy: the total over all flights, and the top flights by
+	 * load factor.  Every shard returns its totals and its own top flights;
+	 * the global top is among them.
+	 *
+	 * @param top how many flights to list
+	 * @return the total sold and seats followed by rows of fnum, num_sold, seats
+	 */
+	public List<List<String>> occupancy(int top) throws SQLException {
+		String flights = "FROM Flight F, FlightInfo FL, Plane P WHERE FL.flight_id = F.fnum AND P.id = FL.plane_id";
+		long sold = 0, seats = 0;
+		for (List<String> row : scatter("SELECT COALESCE(SUM(F.num_sold), 0), COALESCE(SUM(P.seats), 0) " + flights)) {
+			sold += Long.parseLong(row.get(0));
+			seats += Long.parseLong(row.get(1));
+		}
+
+		List<List<String>> rows = scatter(String.format("SELECT F.fnum, F.num_sold, P.seats %s ORDER BY F.num_sold::float / P.seats DESC, F.fnum LIMIT %d", flights, top));
+		Collections.sort(rows, (a, b) -> Double.compare(
+			Double.parseDouble(b.get(1)) / Double.parseDouble(b.get(2)),
+			Double.parseDouble(a.get(1)) / Double.parseDouble(a.get(2))));
+		List<List<String>> result = new ArrayList<List<String>>();
+		List<String> total = new ArrayList<String>();
+		total.add(String.valueOf(sold));
+		total.add(String.valueOf(seats));
+		result.add(total);
+		result.addAll(rows.subList(0, Math.min(top, rows.size())));
+		return result;
+	}
+
+	/**
+	 * Adds a flight with its FlightInfo and Schedule rows on the shard of its
+	 * flight number.  The flight is checked on every shard, since the other
+	 * flights of its pilot and plane may live on any of them.  Flights that
+	 * are added at the same time on different shards are only checked against
+	 * each other when they land on the same shard.
+	 *
+	 * @return the flight number of the new flight
+	 * @throws java.sql.SQLException when the flight is invalid or could not be written
+	 */
+	public int addFlight(FlightImporter.FlightRow r) throws SQLException {
+		List<List<String>> next = this._shards[0].executeQueryAndReturnResult("SELECT nextval('flight_fnum_seq')", true);
+		int fnum = Integer.parseInt(next.get(0).get(0));
+		DBproject target = forFlight(fnum);
+
+		for (DBproject shard : this._shards) {
+			String error = FlightImporter.validateOne(shard, r);
+			if (error != null) throw new SQLException("The flight was not added, " + error);
+		}
+		FlightImporter.write(target, Collections.singletonList(r), new int[] {fnum});
+		return fnum;
+	}
+
+	public int addPilot(String fullname, String nationality) throws SQLException {
+		return addReference("Pilot", "fullname, nationality", String.format("'%s', '%s'", fullname, nationality));
+	}
+
+	public int addPlane(String make, String model, int age, int seats) throws SQLException {
+		return addReference("Plane", "make, model, age, seats", String.format("'%s', '%s', %d, %d", make, model, age, seats));
+	}
+
+	public int addTechnician(String fullName) throws SQLException {
+		return addReference("Technician", "full_name", String.format("'%s'", fullName));
+	}
+
+	public int addCustomer(String fname, String lname, String gtype, String dob, String address, String phone, String zipcode) throws SQLException {
+		return addReference("Customer", "fname, lname, gtype, dob, address, phone, zipcode",
+			String.format("'%s', '%s', '%s', '%s', '%s', '%s', '%s'", fname, lname, gtype, dob, address, phone, zipcode));
+	}
+
+	public void cleanup() {
+		this._pool.shutdown();
+		for (DBproject shard : this._shards)
+			shard.cleanup();
+	}
+
+	static int readInt(String question) {
+		do {
+			System.out.println("\033[32m");
+			System.out.print(question + "\n");
+			System.out.println("\033[0m");
+			try {
+				return Integer.parseInt(in.readLine());
+			}catch (Exception e) {
+				System.out.println("\033[1;31m");
+				System.out.println("Your input is invalid! Please try again.");
+				System.out.println("\033[0m");
+			}
+		}while (true);
+	}
+
+	static String readWord(String question, String pattern) {
+		do {
+			System.out.println("\033[32m");
+			System.out.print(question + "\n");
+			System.out.println("\033[0m");
+			try {
+				String input = in.readLine().trim();
+				if (input.matches(pattern)) return input;
+			}catch (Exception e) {
+				// asks again
+			}
+			System.out.println("\033[1;31m");
+			System.out.println("Your input is invalid! Please try again.");
+			System.out.println("\033[0m");
+		}while (true);
+	}
+
+	static void print(List<List<String>> rows) {
+		System.out.println("\033[1;31m");
+		for (List<String> row : rows)
+			System.out.println(String.join("\t", row));
+		System.out.println("\033[0m");
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args the command line arguments <user> <dbname>:<port>...
+	 */
+	public static void main (String[] args) {
+		if (args.length < 2) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + ShardRouter.class.getName () +
+		            " <user> <dbname>:<port>...");
+			return;
+		}//end if
+
+		ShardRouter router = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			DBproject[] shards = new DBproject[args.length - 1];
+			for (int i = 1; i < args.length; ++i) {
+				String[] shard = args[i].split(":");
+				shards[i - 1] = new DBproject (shard[0], shard[1], args[0], "");
+			}
+			router = new ShardRouter(shards);
+
+			boolean keepon = true;
+			while(keepon){
+				System.out.println("\033[36m");
+				System.out.println("SHARDED MENU (" + shards.length + " shards)");
+				System.out.println("---------");
+				System.out.println("1. Book Flight");
+				System.out.println("2. List number of available seats for a given flight.");
+				System.out.println("3. Find total number of passengers with a given status");
+				System.out.println("4. List total number of repairs per plane in descending order");
+				System.out.println("5. List total number of repairs per year in ascending order");
+				System.out.println("6. List seat occupancy and the fullest flights");
+				System.out.println("7. Add Pilot");
+				System.out.println("8. Add Plane");
+				System.out.println("9. Add Technician");
+				System.out.println("10. Add Customer");
+				System.out.println("11. Add Flight");
+				System.out.println("12. < EXIT\n");
+				System.out.println("\033[0m");
+
+				try {
+					switch (readInt("Please make your choice: ")){
+						case 1: {
+							int cid = readInt("What is the id of the customer?");
+							int fnum = readInt("What is the number of the flight that you wish to book?");
+							DBproject.Booking booking = router.forFlight(fnum).bookFlight(cid, fnum);
+							System.out.println("\033[1;31m");
+							System.out.println(booking.status.equals("C") ? "Your reservation is now confirmed." : "The flight is sold out. You have now been waitlisted.");
+							System.out.println(String.format("Reservation %d, fare: $%d", booking.rnum, booking.fare));
+							System.out.println("\033[0m");
+							break;
+						}
+						case 2: {
+							int fnum = readInt("What is the flight number?");
+							print(router.forFlight(fnum).executeQueryAndReturnResult(DBproject.availableSeatsQuery(fnum)));
+							break;
+						}
+						case 3: {
+							String status = readWord("What is the status of the passenger? Please input one of the following: W-Waitlisted, C-Confirmed, R-Reserved", "[WCR]");
+							int fnum = readInt("What is the flight number?");
+							print(router.forFlight(fnum).executeQueryAndReturnResult(DBproject.passengerCountQuery(fnum, status)));
+							break;
+						}
+						case 4: print(router.repairsPerPlane()); break;
+						case 5: print(router.repairsPerYear()); break;
+						case 6: {
+							List<List<String>> occupancy = router.occupancy(10);
+							List<String> total = occupancy.get(0);
+							System.out.println("\033[1;31m");
+							System.out.println(String.format("%s of %s seats sold (%.1f%%)", total.get(0), total.get(1),
+								100.0 * Long.parseLong(total.get(0)) / Math.max(1, Long.parseLong(total.get(1)))));
+							System.out.println("fnum\tnum_sold\tseats");
+							System.out.println("\033[0m");
+							print(occupancy.subList(1, occupancy.size()));
+							break;
+						}
+						case 7: {
+							String fullname = readWord("What is the full name of the pilot?", "[a-zA-Z ]+");
+							String nationality = readWord("What is the nationality of the pilot?", "[a-zA-Z ]+");
+							int id = router.addPilot(fullname, nationality);
+							System.out.println("\033[1;31m");
+							System.out.println("You have successfully added pilot " + id + " to every shard.");
+							System.out.println("\033[0m");
+							break;
+						}
+						case 8: {
+							String make = readWord("What is the make of the plane?", "[a-zA-Z0-9 ]+");
+							String model = readWord("What is the model of the plane?", "[a-zA-Z0-9 -]+");
+							int age = readInt("What is the age of the plane?");
+							int seats = readInt("How many seats does the plane contain?");
+							if (age < 0 || seats <= 0 || seats >= 500) {
+								System.out.println("\033[1;31m");
+								System.out.println("ERROR: The age must not be negative and the seats must be between 1 and 499.");
+								System.out.println("\033[0m");
+								break;
+							}
+							int id = router.addPlane(make, model, age, seats);
+							System.out.println("\033[1;31m");
+							System.out.println("You have successfully added plane " + id + " to every shard.");
+							System.out.println("\033[0m");
+							break;
+						}
+						case 9: {
+							String fullName = readWord("What is the full name of the technician?", "[a-zA-Z ]+");
+							int id = router.addTechnician(fullName);
+							System.out.println("\033[1;31m");
+							System.out.println("You have successfully added technician " + id + " to every shard.");
+							System.out.println("\033[0m");
+							break;
+						}
+						case 10: {
+							String fname = readWord("What is the first name of the customer?", "[a-zA-Z]+");
+							String lname = readWord("What is the last name of the customer?", "[a-zA-Z]+");
+							String gtype = readWord("What is the gender of the customer? (F or M)", "[FM]");
+							String dob = readWord("What is the date of birth of the customer? (i.e. YYYY-MM-DD)", "\\d{4}-\\d{2}-\\d{2}");
+							String address = readWord("What is the address of the customer?", "[a-zA-Z0-9 .,#-]+");
+							String phone = readWord("What is the phone number of the customer? (10 digits)", "\\d{10}");
+							String zipcode = readWord("What is the zip code of the customer?", "\\d{5}(-\\d{4})?");
+							int id = router.addCustomer(fname, lname, gtype, dob, address, phone, zipcode);
+							System.out.println("\033[1;31m");
+							System.out.println("You have successfully added customer " + id + " to every shard.");
+							System.out.println("\033[0m");
+							break;
+						}
+						case 11: {
+							FlightImporter.FlightRow r = new FlightImporter.FlightRow();
+							r.cost = readInt("What is the cost of the flight?");
+							r.stops = readInt("How many stops does the flight have?");
+							r.departure = readWord("What is the departure date and time of the flight? (i.e. YYYY-MM-DD HH:MM)", "\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}");
+							r.arrival = readWord("What is the arrival date and time of the flight? (i.e. YYYY-MM-DD HH:MM)", "\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}");
+							r.departureAirport = readWord("What is the departure airport code? (5 letters)", "[a-zA-Z]{5}").toUpperCase();
+							r.arrivalAirport = readWord("What is the arrival airport code? (5 letters)", "[a-zA-Z]{5}").toUpperCase();
+							r.planeId = readInt("What is the id of the plane?");
+							r.pilotId = readInt("What is the id of the pilot?");
+							int fnum = router.addFlight(r);
+							System.out.println("\033[1;31m");
+							System.out.println("You have successfully added flight " + fnum + " to shard " + shardOf(fnum, shards.length) + ".");
+							System.out.println("\033[0m");
+							break;
+						}
+						case 12: keepon = false; break;
+					}
+				}catch (SQLException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}finally{
+			if (router != null) router.cleanup ();
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Table and report export
+ * =======================
+ *
+ * Streams tables or report queries out of the database with COPY TO STDOUT.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * This class exports tables or queries to files or standard out.  Each
+ * target is a table name or a SELECT statement.  The data never goes through
+ * executeQueryAndReturnResult: COPY output is streamed through a fixed size
+ * buffer, so memory use stays the same whatever the export size.
+ *
+ * Options are system properties:
+ *   export.format      csv or binary (default csv)
+ *   export.gzip        true to gzip every output file (default false)
+ *   export.chunkBytes  start a new file after this many bytes, 0 for one file (default 0)
+ *   export.dir         output directory, or - for standard out (default .)
+ *   export.threads     number of targets exported at once (default 4)
+ */
+
+public class TableExporter{
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String _format;
+	private final boolean _gzip;
+	private final long _chunkBytes;
+	private final String _dir;
+	//standard out as it was when the exporter was created
+	private final OutputStream _stdout = System.out;
+
+	public TableExporter(String format, boolean gzip, long chunkBytes, String dir) {
+		if (!format.equals("csv") && !format.equals("binary"))
+			throw new IllegalArgumentException("export.format must be csv or binary, got " + format);
+		this._format = format;
+		this._gzip = gzip;
+		this._chunkBytes = chunkBytes;
+		this._dir = dir;
+	}
+
+	/**
+	 * An output stream that writes numbered files and starts the next file
+	 * once the current one holds chunkBytes (uncompressed).  CSV chunks are
+	 * only cut after a newline so every file holds whole rows; binary chunks
+	 * are cut anywhere and have to be concatenated before loading.
+	 */
+	class ChunkedFileOutputStream extends OutputStream{
+		private final String _base;
+		private final boolean _lineAligned;
+		private OutputStream _out;
+		private int _chunk = 0;
+		private long _written = 0;
+		private byte _lastByte = 0;
+
+		ChunkedFileOutputStream(String base) throws IOException {
+			this._base = base;
+			this._lineAligned = _format.equals("csv");
+			open();
+		}
+
+		private void open() throws IOException {
+			String name = _dir + "/" + _base;
+			if (_chunkBytes > 0) name += String.format(".part%04d", _chunk);
+			name += _format.equals("csv") ? ".csv" : ".bin";
+			if (_gzip) name += ".gz";
+
+			OutputStream file = new FileOutputStream(name);
+			this._out = _gzip ? new GZIPOutputStream(file, BUFFER_SIZE) : new BufferedOutputStream(file, BUFFER_SIZE);
+			this._written = 0;
+		}
+
+		private void roll() throws IOException {
+			this._out.close();
+			++this._chunk;
+			open();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (_chunkBytes > 0 && this._written >= _chunkBytes && (!this._lineAligned || this._lastByte == '\n'))
+					roll();
+
+				// bytes that still go into the current file
+				int cut = len;
+				long room = _chunkBytes - this._written;
+				if (_chunkBytes > 0 && room < len) {
+					cut = (int) Math.max(room, 0);
+					if (this._lineAligned) {
+						int i = off + Math.max(cut - 1, 0);
+						while (i < off + len && b[i] != '\n') ++i;
+						cut = (i < off + len) ? i - off + 1 : len;
+					}
+				}
+
+				this._out.write(b, off, cut);
+				this._written += cut;
+				this._lastByte = b[off + cut - 1];
+				off += cut;
+				len -= cut;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			this._out.close();
+		}
+
+		int files() {
+			return this._chunk + 1;
+		}
+	}
+
+	/**
+	 * Builds the COPY statement for a table name or a SELECT statement.
+	 * Tables are copied through SELECT * so partitioned tables work too.
+	 */
+	String copyStatement(String target) {
+		String query = target.trim().contains(" ") ? target : "SELECT * FROM " + target;
+		String options = this._format.equals("csv") ? "FORMAT csv, HEADER" : "FORMAT binary";
+		return "COPY (" + query + ") TO STDOUT WITH (" + options + ")";
+	}
+
+	/**
+	 * Exports one target on the given connection.
+	 *
+	 * @param esql connection to export from
+	 * @param target a table name or a SELECT statement
+	 * @param base file name without extension, used unless writing to standard out
+	 * @return a one line summary of the export
+	 */
+	String export(DBproject esql, String target, String base) throws SQLException, IOException {
+		long start = System.nanoTime();
+		if (this._dir.equals("-")) {
+			// standard out stays open for the next target
+			OutputStream out = new FilterOutputStream(new BufferedOutputStream(this._stdout, BUFFER_SIZE)) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					this.out.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+					this.out.flush();
+				}
+			};
+			if (this._gzip) out = new GZIPOutputStream(out, BUFFER_SIZE);
+			long rows = esql.copyOut(copyStatement(target), out);
+			out.close();
+			return String.format("%s: %d rows to stdout in %.2f s", target, rows, (System.nanoTime() - start) / 1e9);
+		}
+
+		ChunkedFileOutputStream out = new ChunkedFileOutputStream(base);
+		try {
+			long rows = esql.copyOut(copyStatement(target), out);
+			return String.format("%s: %d rows to %d file(s) %s/%s* in %.2f s", target, rows, out.files(), this._dir, base, (System.nanoTime() - start) / 1e9);
+		}finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args the command line arguments <dbname> <port> <user> <table|query>...
+	 */
+	public static void main (String[] args) {
+		if (args.length < 4) {
+			System.err.println (
+				"Usage: " + "java [-Dexport.format=csv|binary ...] [-classpath <classpath>] " + TableExporter.class.getName () +
+		            " <dbname> <port> <user> <table|query>...");
+			return;
+		}//end if
+
+		String dir = System.getProperty("export.dir", ".");
+		TableExporter exporter = new TableExporter(
+			System.getProperty("export.format", "csv"),
+			Boolean.getBoolean("export.gzip"),
+			Long.getLong("export.chunkBytes", 0),
+			dir);
+		// targets written to standard out must not interleave, and the
+		// connection messages of DBproject go to standard error instead
+		int threads = Integer.getInteger("export.threads", 4);
+		if (dir.equals("-")) {
+			threads = 1;
+			System.setOut(System.err);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try{
+			Class.forName("org.postgresql.Driver");
+
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 3; i < args.length; ++i) {
+				final String target = args[i];
+				final String base = target.trim().contains(" ") ? "query" + (i - 3) : target.toLowerCase();
+				// every export runs on its own connection
+				results.add(pool.submit(() -> {
+					DBproject esql = new DBproject (args[0], args[1], args[2], "");
+					try {
+						return exporter.export(esql, target, base);
+					}finally {
+						esql.cleanup ();
+					}
+				}));
+			}
+			for (Future<String> result : results) {
+				try {
+					System.err.println(result.get());
+				}catch (Exception e) {
+					// the cause (or its message) can be missing, so print the throwable itself
+					System.err.println("Export failed: " + (e.getCause() != null ? e.getCause() : e));
+				}
+			}
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}finally{
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+#! /bin/bash
+# Creates a logical replica of <user>_DB on the same instance, so read/write
+# routing can be tried without a second server.  The replica gets the schema of
+# the primary, then a subscription copies the current rows and keeps applying
+# every later write.  Heartbeat is replicated like every other table, which is
+# what DBproject measures the replica lag with.
+#
+# Needs wal_level=logical on the instance (startPostgreSQL.sh sets it) and a
+# user that may replicate (the user that ran initdb may).
+# Example: ./createReplicaDB.sh, then run.sh <user>_DB $PGPORT <user> <user>_replica_DB $PGPORT
+DB=$USER"_DB"
+REPLICA=$USER"_replica_DB"
+# the subscription, its slot and the publication share this name
+SUB=$(echo $USER | tr 'A-Z-' 'a-z_')"_replica"
+
+if [ "$(psql -h localhost -p $PGPORT -At -c 'SHOW wal_level' $DB)" != "logical" ]; then
+	echo "wal_level must be logical, restart the server with -c wal_level=logical"
+	exit 1
+fi
+
+echo "creating db named ... "$REPLICA
+createdb -h localhost -p $PGPORT $REPLICA || exit 1
+
+echo "Copying schema .. "
+set -o pipefail
+pg_dump -h localhost -p $PGPORT --schema-only $DB | psql -h localhost -p $PGPORT -v ON_ERROR_STOP=1 -q $REPLICA || exit 1
+
+echo "Publishing $DB .. "
+# changes of a Reservation partition are sent as changes of Reservation, so the
+# replica's partitions only have to cover the same months, not match by name;
+# the slot is made here because a subscription on the same instance cannot
+# create it itself
+psql -h localhost -p $PGPORT -v ON_ERROR_STOP=1 $DB <<-EOF || exit 1
+	CREATE PUBLICATION $SUB FOR ALL TABLES WITH (publish_via_partition_root = true);
+	SELECT pg_create_logical_replication_slot('$SUB', 'pgoutput');
+EOF
+
+echo "Subscribing $REPLICA .. "
+psql -h localhost -p $PGPORT -v ON_ERROR_STOP=1 $REPLICA -c "CREATE SUBSCRIPTION $SUB CONNECTION 'host=localhost port=$PGPORT dbname=$DB' PUBLICATION $SUB WITH (create_slot = false, slot_name = '$SUB')" || exit 1
+
+echo "Initial copy state (r = ready) .. "
+sleep 1
+psql -h localhost -p $PGPORT $REPLICA -c "SELECT srrelid::regclass AS relation, srsubstate AS state FROM pg_subscription_rel ORDER BY 1"
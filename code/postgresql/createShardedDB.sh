@@ -0,0 +1,20 @@
+#! /bin/bash
+# Creates N shard databases on this instance, named <user>_shard0 .. <user>_shard<N-1>,
+# each loaded with create.sql and pruned to its own flights (see ../sql/shard_prune.sql).
+# Example: ./createShardedDB.sh 4, then ../java/sharded.sh $USER $USER"_shard0":$PGPORT ... $USER"_shard3":$PGPORT
+SHARDS=$1
+
+echo "Copying csv files ... "
+sleep 1
+cp ../data/*.csv /tmp/$USER/myDB/data/.
+
+for ((i = 0; i < SHARDS; i++)); do
+	echo "creating db named ... "$USER"_shard"$i
+	createdb -h localhost -p $PGPORT $USER"_shard"$i
+
+	echo "Initializing tables .. "
+	psql -h localhost -p $PGPORT $USER"_shard"$i < ../sql/create.sql
+
+	echo "Pruning to shard $i of $SHARDS .. "
+	psql -h localhost -p $PGPORT -v shard=$i -v shards=$SHARDS $USER"_shard"$i < ../sql/shard_prune.sql
+done
@@ -0,0 +1,92 @@
+#! /bin/bash
+# Maintenance for the monthly partitions of Reservation (see ../sql/create.sql).
+#
+# Example: ./reservationPartitions.sh list
+#          ./reservationPartitions.sh attach 2014-07
+#          ./reservationPartitions.sh detach 2014-04
+#
+# Reservation is partitioned by the departure month of the flight, and there is
+# no default partition, so a month has to be attached before flights departing
+# in it are added (FlightImporter refuses them otherwise).
+#
+# attach creates the partition as a plain table with a validated CHECK on the
+# month, which is instant on the empty table, and then attaches it.  The CHECK
+# lets ATTACH skip its scan, and ATTACH only takes a SHARE UPDATE EXCLUSIVE lock
+# on Reservation, so bookings keep running.  Creating the partition directly
+# with PARTITION OF would lock Reservation exclusively.
+#
+# detach takes a month whose flights have all departed out of Reservation with
+# DETACH CONCURRENTLY, which does not block bookings, dumps it to $ARCHIVE and
+# drops it only after the dump succeeded.  If the detach is interrupted, finish
+# it with: ALTER TABLE Reservation DETACH PARTITION <partition> FINALIZE
+#
+# Partitions are not replicated.  When the logical replica of createReplicaDB.sh
+# exists, a month is attached there first, so it can apply the month's bookings,
+# and dropped there after it was archived from the primary.
+DB=$USER"_DB"
+REPLICA=$USER"_replica_DB"
+ARCHIVE=/tmp/$USER/archive
+PSQL="psql -h localhost -p $PGPORT -v ON_ERROR_STOP=1 $DB"
+if psql -h localhost -p $PGPORT -Atc "SELECT 1" $REPLICA > /dev/null 2>&1; then
+	REPLICA_PSQL="psql -h localhost -p $PGPORT -v ON_ERROR_STOP=1 $REPLICA"
+fi
+
+# partition name and bounds of the month in $1 (YYYY-MM)
+month_bounds() {
+	if ! [[ $1 =~ ^[0-9]{4}-(0[1-9]|1[0-2])$ ]]; then
+		echo "Month must be YYYY-MM: $1"
+		exit 1
+	fi
+	PART=Reservation_y${1:0:4}m${1:5:2}
+	FROM=$1-01
+	TO=$(date -d "$FROM +1 month" +%Y-%m-%d)
+}
+
+case $1 in
+	list)
+		$PSQL -c "SELECT C.relname AS partition, pg_get_expr(C.relpartbound, C.oid) AS bound, C.reltuples::bigint AS approx_rows, pg_size_pretty(pg_relation_size(C.oid)) AS size FROM pg_inherits I, pg_class C WHERE I.inhrelid = C.oid AND I.inhparent = 'reservation'::regclass ORDER BY C.relname"
+		;;
+	attach)
+		month_bounds $2
+		echo "Attaching $PART for departures from $FROM to $TO ... "
+		for P in "$REPLICA_PSQL" "$PSQL"; do
+			[ -z "$P" ] && continue
+			$P <<-EOF || exit 1
+				CREATE TABLE $PART (LIKE Reservation INCLUDING DEFAULTS INCLUDING CONSTRAINTS);
+				ALTER TABLE $PART ADD CONSTRAINT ${PART}_month CHECK (departure_month >= '$FROM' AND departure_month < '$TO');
+				ALTER TABLE Reservation ATTACH PARTITION $PART FOR VALUES FROM ('$FROM') TO ('$TO');
+				-- the partition bound enforces the same now
+				ALTER TABLE $PART DROP CONSTRAINT ${PART}_month;
+			EOF
+		done
+		;;
+	detach)
+		month_bounds $2
+		if [[ $TO > $(date +%Y-%m-%d) ]]; then
+			echo "Flights of $2 have not all departed yet, not detaching $PART"
+			exit 1
+		fi
+		FILE=$ARCHIVE/$PART.sql.gz
+		echo "Detaching $PART ... "
+		# CONCURRENTLY cannot run in a transaction block, so it is a statement of its own
+		$PSQL -c "ALTER TABLE Reservation DETACH PARTITION $PART CONCURRENTLY" || exit 1
+
+		echo "Archiving $PART to $FILE ... "
+		mkdir -p $ARCHIVE
+		# without pipefail a failed pg_dump would be hidden by gzip
+		set -o pipefail
+		if ! pg_dump -h localhost -p $PGPORT -t $PART $DB | gzip > $FILE.tmp; then
+			rm -f $FILE.tmp
+			echo "Dump of $PART failed, it is detached but not dropped"
+			exit 1
+		fi
+		mv $FILE.tmp $FILE
+		$PSQL -c "DROP TABLE $PART" || exit 1
+		if [ -n "$REPLICA_PSQL" ]; then
+			$REPLICA_PSQL -c "DROP TABLE $PART" || exit 1
+		fi
+		;;
+	*)
+		echo "Usage: $0 list | attach <YYYY-MM> | detach <YYYY-MM>"
+		;;
+esac
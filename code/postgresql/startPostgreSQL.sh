@@ -22,5 +22,6 @@ initdb
 sleep 1
 #Start folder
 export PGPORT=9999
-pg_ctl -o "-c unix_socket_directories=$PGSOCKETS -p $PGPORT" -D $PGDATA -l $folder/logfile start
+#wal_level=logical lets createReplicaDB.sh subscribe a replica
+pg_ctl -o "-c unix_socket_directories=$PGSOCKETS -p $PGPORT -c wal_level=logical" -D $PGDATA -l $folder/logfile start
 
@@ -8,18 +8,24 @@ DROP TABLE IF EXISTS Reservation CASCADE;--OK
 DROP TABLE IF EXISTS FlightInfo CASCADE;--OK
 DROP TABLE IF EXISTS Repairs CASCADE;--OK
 DROP TABLE IF EXISTS Schedule CASCADE;--OK
+DROP TABLE IF EXISTS Heartbeat CASCADE;
+DROP SEQUENCE IF EXISTS reservation_rnum_seq;
+DROP SEQUENCE IF EXISTS flight_fnum_seq;
+DROP SEQUENCE IF EXISTS flightinfo_fiid_seq;
+DROP SEQUENCE IF EXISTS schedule_id_seq;
 
 -------------
 ---DOMAINS---
 -------------
 CREATE DOMAIN us_postal_code AS TEXT CHECK(VALUE ~ '^\d{5}$' OR VALUE ~ '^\d{5}-\d{4}$');
-CREATE DOMAIN _STATUS CHAR(1) CHECK (value IN ( 'W' , 'C', 'R' ) );
+CREATE TYPE _STATUS AS ENUM ( 'W' , 'C', 'R' );--Waitlisted, Confirmed, Reserved
 CREATE DOMAIN _GENDER CHAR(1) CHECK (value IN ( 'F' , 'M' ) );
 CREATE DOMAIN _CODE CHAR(2) CHECK (value IN ( 'MJ' , 'MN', 'SV' ) ); --Major, Minimum, Service
 CREATE DOMAIN _PINTEGER AS int4 CHECK(VALUE > 0);
 CREATE DOMAIN _PZEROINTEGER AS int4 CHECK(VALUE >= 0);
-CREATE DOMAIN _YEAR_1970 AS int4 CHECK(VALUE >= 0);
-CREATE DOMAIN _SEATS AS int4 CHECK(VALUE > 0 AND VALUE < 500);--Plane Seats
+CREATE DOMAIN _PZEROSMALLINT AS int2 CHECK(VALUE >= 0);
+CREATE DOMAIN _YEAR_1970 AS int2 CHECK(VALUE >= 0);
+CREATE DOMAIN _SEATS AS int2 CHECK(VALUE > 0 AND VALUE < 500);--Plane Seats
 
 ------------
 ---TABLES---
@@ -27,21 +33,21 @@ CREATE DOMAIN _SEATS AS int4 CHECK(VALUE > 0 AND VALUE < 500);--Plane Seats
 CREATE TABLE Customer
 (
 	id INTEGER NOT NULL,
-	fname CHAR(24) NOT NULL,
-	lname CHAR(24) NOT NULL,
+	fname VARCHAR(24) NOT NULL,
+	lname VARCHAR(24) NOT NULL,
 	gtype _GENDER NOT NULL,
 	dob DATE NOT NULL,
-	address CHAR(256),
-	phone CHAR(10),
-	zipcode char(10),
+	address VARCHAR(256),
+	phone VARCHAR(10),
+	zipcode VARCHAR(10),
 	PRIMARY KEY (id)
 );
 
 CREATE TABLE Pilot
 (
 	id INTEGER NOT NULL,
-	fullname CHAR(128),
-	nationality CHAR(24),
+	fullname VARCHAR(128),
+	nationality VARCHAR(24),
 	PRIMARY KEY (id)
 );
 
@@ -50,19 +56,21 @@ CREATE TABLE Flight
 	fnum INTEGER NOT NULL,
 	cost _PINTEGER NOT NULL,
 	num_sold _PZEROINTEGER NOT NULL,
-	num_stops _PZEROINTEGER NOT NULL,
-	actual_departure_date DATE NOT NULL,
-	actual_arrival_date DATE NOT NULL,
-	arrival_airport CHAR(5) NOT NULL,-- AIRPORT CODE --
-	departure_airport CHAR(5) NOT NULL,-- AIRPORT CODE --
+	num_stops _PZEROSMALLINT NOT NULL,
+	actual_departure_date TIMESTAMP NOT NULL,
+	actual_arrival_date TIMESTAMP NOT NULL,
+	arrival_airport VARCHAR(5) NOT NULL,-- AIRPORT CODE --
+	departure_airport VARCHAR(5) NOT NULL,-- AIRPORT CODE --
+	base_cost _PINTEGER,-- BASE FARE, NULL UNTIL REPRICED, LAST LIKE IN migrate_fares.sql --
 	PRIMARY KEY (fnum)
 );
+CREATE SEQUENCE flight_fnum_seq;--new flight numbers, see FlightImporter.write
 
 CREATE TABLE Plane
 (
 	id INTEGER NOT NULL,
-	make CHAR(32) NOT NULL,
-	model CHAR(64) NOT NULL,
+	make VARCHAR(32) NOT NULL,
+	model VARCHAR(64) NOT NULL,
 	age _YEAR_1970 NOT NULL,
 	seats _SEATS NOT NULL,
 	PRIMARY KEY (id)
@@ -71,24 +79,54 @@ CREATE TABLE Plane
 CREATE TABLE Technician
 (
 	id INTEGER NOT NULL,
-	full_name CHAR(128) NOT NULL,
+	full_name VARCHAR(128) NOT NULL,
 	PRIMARY KEY (id)
 );
 
+-- replica lag probe, the primary writes the beat and the replica applies it,
+-- see DBproject.replicaLag
+CREATE TABLE Heartbeat
+(
+	id INTEGER NOT NULL,
+	beat TIMESTAMPTZ NOT NULL,
+	PRIMARY KEY (id)
+);
+INSERT INTO Heartbeat (id, beat) VALUES (0, now());
+
+-- customer search pages, see DBproject.SearchCustomers
+CREATE INDEX customer_lname_idx ON Customer (lname COLLATE "C", id);
+CREATE INDEX customer_phone_idx ON Customer (phone, id);
+
 ---------------
 ---RELATIONS---
 ---------------
 
+-- Reservation is range partitioned on the departure month of its flight,
+-- copied from Flight.actual_departure_date when the reservation is made.
+-- Queries that carry the month only touch one partition, and a month of
+-- departed flights can be detached and archived as a whole. The partition
+-- key has to be part of the primary key. There is no default partition:
+-- a month is attached before its flights are added. See
+-- postgresql/reservationPartitions.sh for attaching and detaching months.
 CREATE TABLE Reservation
 (
 	rnum INTEGER NOT NULL,
 	cid INTEGER NOT NULL,
 	fid INTEGER NOT NULL,
 	status _STATUS,
-	PRIMARY KEY (rnum),
+	departure_month DATE NOT NULL,-- FIRST DAY OF THE FLIGHT'S DEPARTURE MONTH --
+	PRIMARY KEY (rnum, departure_month),
 	FOREIGN KEY (cid) REFERENCES Customer(id),
 	FOREIGN KEY (fid) REFERENCES Flight(fnum)
-);
+) PARTITION BY RANGE (departure_month);
+
+CREATE TABLE Reservation_y2014m04 PARTITION OF Reservation FOR VALUES FROM ('2014-04-01') TO ('2014-05-01');
+CREATE TABLE Reservation_y2014m05 PARTITION OF Reservation FOR VALUES FROM ('2014-05-01') TO ('2014-06-01');
+CREATE TABLE Reservation_y2014m06 PARTITION OF Reservation FOR VALUES FROM ('2014-06-01') TO ('2014-07-01');
+
+CREATE INDEX reservation_fid_status_idx ON Reservation (fid, status);
+CREATE INDEX reservation_cid_rnum_idx ON Reservation (cid, rnum);--customer itinerary pages
+CREATE SEQUENCE reservation_rnum_seq;--new reservation numbers, see DBproject.bookFlight
 
 CREATE TABLE FlightInfo
 (
@@ -101,6 +139,7 @@ CREATE TABLE FlightInfo
 	FOREIGN KEY (pilot_id) REFERENCES Pilot(id),
 	FOREIGN KEY (plane_id) REFERENCES Plane(id)
 );
+CREATE SEQUENCE flightinfo_fiid_seq;--new assignment ids, see FlightImporter.write
 
 CREATE TABLE Repairs
 (
@@ -120,11 +159,20 @@ CREATE TABLE Schedule
 (
 	id INTEGER NOT NULL,
 	flightNum INTEGER NOT NULL,
-	departure_time DATE NOT NULL,
-	arrival_time DATE NOT NULL,
+	departure_time TIMESTAMP NOT NULL,
+	arrival_time TIMESTAMP NOT NULL,
 	PRIMARY KEY (id),
 	FOREIGN KEY (flightNum) REFERENCES Flight(fnum)
 );
+CREATE SEQUENCE schedule_id_seq;--new schedule ids, see FlightImporter.write
+
+-- departure and arrival boards, see DepartureBoard
+CREATE INDEX schedule_departure_idx ON Schedule (departure_time, flightNum);
+CREATE INDEX schedule_arrival_idx ON Schedule (arrival_time, flightNum);
+
+-- conflict checks of a single new flight, see FlightImporter.validateOne
+CREATE INDEX flightinfo_pilot_idx ON FlightInfo (pilot_id);
+CREATE INDEX flightinfo_plane_idx ON FlightInfo (plane_id);
 
 ----------------------------
 -- INSERT DATA STATEMENTS --
@@ -180,8 +228,12 @@ COPY Flight (
 )
 FROM 'flights.csv'
 WITH DELIMITER ',';
+SELECT setval('flight_fnum_seq', (SELECT MAX(fnum) FROM Flight));
 
-COPY Reservation (
+-- reservation.csv has no departure month, it is taken from Flight; a
+-- reservation of an unknown flight fails on the NOT NULL month
+CREATE TEMP TABLE Reservation_load (rnum INTEGER, cid INTEGER, fid INTEGER, status _STATUS);
+COPY Reservation_load (
 	rnum,
 	cid,
 	fid,
@@ -189,6 +241,11 @@ COPY Reservation (
 )
 FROM 'reservation.csv'
 WITH DELIMITER ',';
+INSERT INTO Reservation (rnum, cid, fid, status, departure_month)
+SELECT L.rnum, L.cid, L.fid, L.status, date_trunc('month', F.actual_departure_date)::date
+FROM Reservation_load L LEFT JOIN Flight F ON F.fnum = L.fid;
+DROP TABLE Reservation_load;
+SELECT setval('reservation_rnum_seq', (SELECT MAX(rnum) FROM Reservation));
 
 COPY FlightInfo (
 	fiid,
@@ -198,6 +255,7 @@ COPY FlightInfo (
 )
 FROM 'flightinfo.csv'
 WITH DELIMITER ',';
+SELECT setval('flightinfo_fiid_seq', (SELECT MAX(fiid) FROM FlightInfo));
 
 COPY Repairs (
 	rid,
@@ -217,4 +275,5 @@ COPY Schedule (
 	arrival_time
 )
 FROM 'schedule.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+WITH DELIMITER ',';
+SELECT setval('schedule_id_seq', (SELECT MAX(id) FROM Schedule));
\ No newline at end of file
@@ -0,0 +1,123 @@
+-------------------------------------------------------------
+-- Migrates a database created by an older create.sql to the
+-- compact schema: VARCHAR instead of blank padded CHAR, int2
+-- seats, age and stops, TIMESTAMP flight and schedule times
+-- and an enum for the reservation status.
+--
+-- Run from the directory the csv files were copied to, like
+-- create.sql, since the flight and schedule times that were
+-- truncated to DATE are read back from flights.csv and
+-- schedule.csv.  Every table is rewritten under an exclusive
+-- lock, so stop the application first.  All or nothing.
+--
+-- Example: psql -h localhost -p $PGPORT $USER"_DB" < migrate_compact.sql
+-------------------------------------------------------------
+BEGIN;
+
+-------------
+---DOMAINS---
+-------------
+CREATE TYPE _STATUS_ENUM AS ENUM ( 'W' , 'C', 'R' );
+CREATE DOMAIN _PZEROSMALLINT AS int2 CHECK(VALUE >= 0);
+CREATE DOMAIN _YEAR_1970_INT2 AS int2 CHECK(VALUE >= 0);
+CREATE DOMAIN _SEATS_INT2 AS int2 CHECK(VALUE > 0 AND VALUE < 500);
+
+------------
+---TABLES---
+------------
+-- one ALTER TABLE per table so every table is rewritten once
+ALTER TABLE Customer
+	ALTER COLUMN fname TYPE VARCHAR(24) USING rtrim(fname),
+	ALTER COLUMN lname TYPE VARCHAR(24) USING rtrim(lname),
+	ALTER COLUMN address TYPE VARCHAR(256) USING rtrim(address),
+	ALTER COLUMN phone TYPE VARCHAR(10) USING rtrim(phone),
+	ALTER COLUMN zipcode TYPE VARCHAR(10) USING rtrim(zipcode);
+
+ALTER TABLE Pilot
+	ALTER COLUMN fullname TYPE VARCHAR(128) USING rtrim(fullname),
+	ALTER COLUMN nationality TYPE VARCHAR(24) USING rtrim(nationality);
+
+ALTER TABLE Plane
+	ALTER COLUMN make TYPE VARCHAR(32) USING rtrim(make),
+	ALTER COLUMN model TYPE VARCHAR(64) USING rtrim(model),
+	ALTER COLUMN age TYPE _YEAR_1970_INT2,
+	ALTER COLUMN seats TYPE _SEATS_INT2;
+
+ALTER TABLE Technician
+	ALTER COLUMN full_name TYPE VARCHAR(128) USING rtrim(full_name);
+
+ALTER TABLE Flight
+	ALTER COLUMN num_stops TYPE _PZEROSMALLINT,
+	ALTER COLUMN actual_departure_date TYPE TIMESTAMP,
+	ALTER COLUMN actual_arrival_date TYPE TIMESTAMP,
+	ALTER COLUMN arrival_airport TYPE VARCHAR(5) USING rtrim(arrival_airport),
+	ALTER COLUMN departure_airport TYPE VARCHAR(5) USING rtrim(departure_airport);
+
+ALTER TABLE Schedule
+	ALTER COLUMN departure_time TYPE TIMESTAMP,
+	ALTER COLUMN arrival_time TYPE TIMESTAMP;
+
+-- also rewrites every partition and the (fid, status) index
+ALTER TABLE Reservation
+	ALTER COLUMN status TYPE _STATUS_ENUM USING status::text::_STATUS_ENUM;
+
+-- the new types take the old names
+DROP DOMAIN _STATUS;
+ALTER TYPE _STATUS_ENUM RENAME TO _STATUS;
+DROP DOMAIN _YEAR_1970;
+ALTER DOMAIN _YEAR_1970_INT2 RENAME TO _YEAR_1970;
+DROP DOMAIN _SEATS;
+ALTER DOMAIN _SEATS_INT2 RENAME TO _SEATS;
+
+------------------------
+-- RESTORE TIME OF DAY --
+------------------------
+-- only rows still at midnight of the loaded day are touched, so
+-- flights moved since the load keep their dates
+CREATE TEMP TABLE flights_csv
+(
+	fnum INTEGER,
+	cost INTEGER,
+	num_sold INTEGER,
+	num_stops INTEGER,
+	actual_departure_date TIMESTAMP,
+	actual_arrival_date TIMESTAMP,
+	arrival_airport TEXT,
+	departure_airport TEXT
+) ON COMMIT DROP;
+
+COPY flights_csv
+FROM 'flights.csv'
+WITH DELIMITER ',';
+
+UPDATE Flight F
+SET actual_departure_date = C.actual_departure_date,
+	actual_arrival_date = C.actual_arrival_date
+FROM flights_csv C
+WHERE F.fnum = C.fnum
+	AND F.actual_departure_date = date_trunc('day', C.actual_departure_date)
+	AND F.actual_arrival_date = date_trunc('day', C.actual_arrival_date);
+
+CREATE TEMP TABLE schedule_csv
+(
+	id INTEGER,
+	flightNum INTEGER,
+	departure_time TIMESTAMP,
+	arrival_time TIMESTAMP
+) ON COMMIT DROP;
+
+COPY schedule_csv
+FROM 'schedule.csv'
+WITH DELIMITER ',';
+
+UPDATE Schedule S
+SET departure_time = C.departure_time,
+	arrival_time = C.arrival_time
+FROM schedule_csv C
+WHERE S.id = C.id
+	AND S.departure_time = date_trunc('day', C.departure_time)
+	AND S.arrival_time = date_trunc('day', C.arrival_time);
+
+COMMIT;
+
+VACUUM ANALYZE;
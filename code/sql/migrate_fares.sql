@@ -0,0 +1,9 @@
+-------------------------------------------------------------
+-- Adds Flight.base_cost for FareEngine to a database created
+-- by an older create.sql.  The column is NULL until a flight
+-- is repriced for the first time, so this only changes the
+-- catalog and does not rewrite Flight.
+--
+-- Example: psql -h localhost -p $PGPORT $USER"_DB" < migrate_fares.sql
+-------------------------------------------------------------
+ALTER TABLE Flight ADD COLUMN IF NOT EXISTS base_cost _PINTEGER;
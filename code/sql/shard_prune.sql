@@ -0,0 +1,32 @@
+-------------------------------------------------------------
+-- Turns a fully loaded database into shard :shard of :shards.
+-- Flights and their Reservation, FlightInfo and Schedule rows
+-- are kept by shard_of(fnum), Repairs by shard_of(plane_id).
+-- Customer, Pilot, Plane and Technician stay complete on every
+-- shard.  shard_of must match ShardRouter.shardOf.
+--
+-- Example: psql -v shard=0 -v shards=4 <db> < shard_prune.sql
+-------------------------------------------------------------
+CREATE OR REPLACE FUNCTION shard_of(key INTEGER, shards INTEGER) RETURNS INTEGER AS $$
+	SELECT ((((key::bigint * 2654435761) % 4294967296) % shards + shards) % shards)::int
+$$ LANGUAGE SQL IMMUTABLE;
+
+-- new reservation numbers are unique across shards: shard i hands out
+-- numbers equal to i modulo the number of shards
+ALTER SEQUENCE reservation_rnum_seq INCREMENT BY :shards;
+SELECT setval('reservation_rnum_seq', ((SELECT COALESCE(MAX(rnum), 0) FROM Reservation) / :shards + 1) * :shards + :shard, false);
+
+-- the same for FlightInfo and Schedule ids of added flights; flight numbers
+-- all come from flight_fnum_seq of shard 0 (see ShardRouter.addFlight)
+ALTER SEQUENCE flightinfo_fiid_seq INCREMENT BY :shards;
+SELECT setval('flightinfo_fiid_seq', ((SELECT COALESCE(MAX(fiid), 0) FROM FlightInfo) / :shards + 1) * :shards + :shard, false);
+ALTER SEQUENCE schedule_id_seq INCREMENT BY :shards;
+SELECT setval('schedule_id_seq', ((SELECT COALESCE(MAX(id), 0) FROM Schedule) / :shards + 1) * :shards + :shard, false);
+
+DELETE FROM Reservation WHERE shard_of(fid, :shards) <> :shard;
+DELETE FROM FlightInfo WHERE shard_of(flight_id, :shards) <> :shard;
+DELETE FROM Schedule WHERE shard_of(flightNum, :shards) <> :shard;
+DELETE FROM Flight WHERE shard_of(fnum, :shards) <> :shard;
+DELETE FROM Repairs WHERE shard_of(plane_id, :shards) <> :shard;
+
+VACUUM ANALYZE;